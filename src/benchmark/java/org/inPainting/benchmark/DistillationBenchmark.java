@@ -0,0 +1,93 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.inPainting.nn.distillation.DistillationTrainer;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Distills the generator of gan.zip into a smaller student generator with {@link DistillationTrainer},
+ * writes the student Gan network (student-gan.zip) and compares FLOPs, parameters, latency
+ * and L1/PSNR in the holes of the teacher and the student.
+ *
+ * Requires trained gan.zip and ./data/256 training set, discriminator.zip is used when it exists.
+ *
+ * Arguments: [steps] (default 1000) [width multiplier] (default 0.25) [depth] (default 4)
+ * [iterations] (default 5) [samples] (default 8)
+ */
+public class DistillationBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        long steps = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        double width = args.length > 1 ? Double.parseDouble(args[1]) : 0.25;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : GeneratorBuilder.DEFAULT_DEPTH;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int samples = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+        File discFile = new File("discriminator.zip");
+        ComputationGraph teacher = new GAN(null, ComputationGraph.load(new File("gan.zip"), false)).getGenerator();
+
+        ImageLoader imageLoader = new ImageLoader();
+        ImageDataSetIterator trainDataSet = imageLoader.prepareInFileData();
+
+        DistillationTrainer trainer = new DistillationTrainer(teacher,
+                new GeneratorBuilder().widthMultiplier(width).depth(depth), () -> {
+            try {
+                return discFile.exists() ? ComputationGraph.load(discFile, true) : NeuralNetwork.getDiscriminator();
+            } catch (IOException e) {
+                throw new IllegalStateException("Error while loading discriminator network", e);
+            }
+        });
+        trainer.fit(trainDataSet, steps);
+
+        ComputationGraph student = trainer.getStudent().getGenerator();
+        ModelSerializer.writeModel(trainer.getStudent().getNetwork(), new File("student-gan.zip"), true);
+
+        List<MultiDataSet> evaluation = new ArrayList<>();
+        for (int i = 0; i < samples; i++)
+            evaluation.add(trainDataSet.nextRandom());
+
+        System.out.println(String.format("%-20s %10s %12s %10s %10s %10s %10s %10s",
+                "generator", "GFLOPs", "params", "mean ms", "L1", "PSNR dB", "L1 teach.", "PSNR teach."));
+        System.out.println(report("teacher", teacher, teacher, evaluation, iterations));
+        System.out.println(report(String.format("student w=%.2f d=%d", width, depth), student, teacher, evaluation, iterations));
+    }
+
+    private static String report(String name, ComputationGraph generator, ComputationGraph teacher,
+                                 List<MultiDataSet> evaluation, int iterations) {
+        long flops = FlopCounter.count(generator.getConfiguration(),
+                InputType.convolutional(GAN._InputShape[0][2], GAN._InputShape[0][3], GAN._InputShape[0][1]),
+                InputType.convolutional(GAN._InputShape[1][2], GAN._InputShape[1][3], GAN._InputShape[1][1]));
+
+        //against the expected images and against the teacher output
+        double[] metrics = new double[4];
+        for (MultiDataSet sample : evaluation) {
+            INDArray mask = sample.getFeatures(1);
+            INDArray output = generator.outputSingle(sample.getFeatures());
+            INDArray teacherOutput = teacher.outputSingle(sample.getFeatures());
+
+            metrics[0] += MaskedImageMetrics.l1(output, sample.getLabels(0), mask) / evaluation.size();
+            metrics[1] += MaskedImageMetrics.psnr(output, sample.getLabels(0), mask) / evaluation.size();
+            metrics[2] += MaskedImageMetrics.l1(output, teacherOutput, mask) / evaluation.size();
+            metrics[3] += MaskedImageMetrics.psnr(output, teacherOutput, mask) / evaluation.size();
+        }
+
+        INDArray[] input = evaluation.get(0).getFeatures();
+        LatencyBenchmark.Result result = LatencyBenchmark.run(name, 1, iterations, () -> generator.outputSingle(input));
+
+        return String.format("%-20s %10.2f %12d %10.2f %10.5f %10.2f %10.5f %10.2f",
+                name, flops / 1e9, generator.numParams(), result.getMean(), metrics[0], metrics[1], metrics[2], metrics[3]);
+    }
+}
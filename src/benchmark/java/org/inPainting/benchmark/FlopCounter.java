@@ -0,0 +1,51 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.SeparableConvolution2D;
+
+import java.util.Map;
+
+/**
+ * Counts floating point operations (multiply and add counted separately) of convolution layers of a graph.
+ * Pooling, upsampling, merge and activation costs are ignored, they are small compared to convolutions.
+ */
+public final class FlopCounter {
+
+    private FlopCounter() {
+    }
+
+    /**
+     * @param conf graph configuration
+     * @param inputTypes types of the graph inputs
+     * @return FLOPs of one forward pass for single example
+     */
+    public static long count(ComputationGraphConfiguration conf, InputType... inputTypes) {
+        Map<String, InputType> activationTypes = conf.getLayerActivationTypes(inputTypes);
+
+        long flops = 0;
+        for (Map.Entry<String, GraphVertex> entry : conf.getVertices().entrySet()) {
+            if (!(entry.getValue() instanceof LayerVertex))
+                continue;
+
+            org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) entry.getValue()).getLayerConf().getLayer();
+            if (!(layer instanceof ConvolutionLayer))
+                continue;
+
+            ConvolutionLayer conv = (ConvolutionLayer) layer;
+            InputType.InputTypeConvolutional out = (InputType.InputTypeConvolutional) activationTypes.get(entry.getKey());
+            long positions = out.getHeight() * out.getWidth();
+            long kernel = (long) conv.getKernelSize()[0] * conv.getKernelSize()[1];
+
+            if (conv instanceof SeparableConvolution2D) {
+                long depthWise = conv.getNIn() * ((SeparableConvolution2D) conv).getDepthMultiplier();
+                flops += 2 * positions * (depthWise * kernel + depthWise * conv.getNOut());
+            } else
+                flops += 2 * positions * conv.getNIn() * conv.getNOut() * kernel;
+        }
+        return flops;
+    }
+}
@@ -0,0 +1,114 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.inPainting.nn.compression.CompressedGenerator;
+import org.inPainting.nn.compression.GeneratorCompressor;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compresses the generator with {@link GeneratorCompressor}, writes the artifact and compares it with the float model:
+ * L1 and PSNR in the holes against the expected images and against the float output, size and load time.
+ * Inference of the compressed generator runs on expanded float weights, so its latency is not compared.
+ *
+ * Uses trained Gan network (gan.zip) and ./data/256 training set when they exist,
+ * otherwise randomly initialized network and random images.
+ *
+ * Arguments: [gan file] (default gan.zip) [samples] (default 8) [iterations] (default 5) [output] (default generator-int8.zip)
+ */
+public class GeneratorCompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File ganFile = new File(args.length > 0 ? args[0] : "gan.zip");
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        File output = new File(args.length > 3 ? args[3] : "generator-int8.zip");
+
+        GAN gan = ganFile.exists()
+                ? new GAN(null, ModelSerializer.restoreComputationGraph(ganFile, false))
+                : new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+        ComputationGraph generator = gan.getGenerator();
+
+        //bias correction and evaluation samples: image, mask, expected image
+        List<INDArray[]> correction = new ArrayList<>();
+        List<INDArray[]> evaluation = new ArrayList<>();
+        ImageDataSetIterator dataSet = new File("./data/256/expected/").isDirectory() ? new ImageLoader().prepareInMemoryData() : null;
+        for (int i = 0; i < 2 * samples; i++)
+            (i < samples ? correction : evaluation).add(dataSet != null ? sample(dataSet.nextRandom()) : randomSample());
+
+        CompressedGenerator compressed = GeneratorCompressor.compress(generator, features(correction));
+        compressed.save(output);
+        ComputationGraph expanded = CompressedGenerator.load(output).toComputationGraph();
+
+        File floatFile = File.createTempFile("generator", ".zip");
+        floatFile.deleteOnExit();
+        ModelSerializer.writeModel(generator, floatFile, false);
+
+        System.out.println("float parameters: " + (4L * generator.numParams() / (1 << 20)) + " MB, int8 parameters: "
+                + (compressed.parametersSize() / (1 << 20)) + " MB, artifact " + (output.length() / (1 << 20))
+                + " MB, float artifact " + (floatFile.length() / (1 << 20)) + " MB");
+
+        double[] floatMetrics = new double[2];
+        double[] int8Metrics = new double[2];
+        double[] int8VsFloat = new double[2];
+        for (INDArray[] sample : evaluation) {
+            INDArray floatOutput = generator.outputSingle(sample[0], sample[1]);
+            INDArray int8Output = expanded.outputSingle(sample[0], sample[1]);
+
+            floatMetrics[0] += MaskedImageMetrics.l1(floatOutput, sample[2], sample[1]) / samples;
+            floatMetrics[1] += MaskedImageMetrics.psnr(floatOutput, sample[2], sample[1]) / samples;
+            int8Metrics[0] += MaskedImageMetrics.l1(int8Output, sample[2], sample[1]) / samples;
+            int8Metrics[1] += MaskedImageMetrics.psnr(int8Output, sample[2], sample[1]) / samples;
+            int8VsFloat[0] += MaskedImageMetrics.l1(int8Output, floatOutput, sample[1]) / samples;
+            int8VsFloat[1] += MaskedImageMetrics.psnr(int8Output, floatOutput, sample[1]) / samples;
+        }
+        System.out.println(String.format("%-20s %10s %10s", "masked region", "L1", "PSNR dB"));
+        System.out.println(String.format("%-20s %10.5f %10.2f", "float", floatMetrics[0], floatMetrics[1]));
+        System.out.println(String.format("%-20s %10.5f %10.2f", "int8", int8Metrics[0], int8Metrics[1]));
+        System.out.println(String.format("%-20s %10.5f %10.2f", "int8 vs float", int8VsFloat[0], int8VsFloat[1]));
+
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(LatencyBenchmark.run("float artifact load", 0, iterations, () -> {
+            try {
+                ModelSerializer.restoreComputationGraph(floatFile, false);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        System.out.println(LatencyBenchmark.run("int8 artifact load", 0, iterations, () -> {
+            try {
+                CompressedGenerator.load(output).toComputationGraph();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    private static INDArray[] sample(MultiDataSet dataSet) {
+        return new INDArray[]{dataSet.getFeatures(0), dataSet.getFeatures(1), dataSet.getLabels(0)};
+    }
+
+    private static INDArray[] randomSample() {
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]}).gt(0.8)
+                .castTo(image.dataType());
+        return new INDArray[]{image, mask, image};
+    }
+
+    private static List<INDArray[]> features(List<INDArray[]> samples) {
+        List<INDArray[]> features = new ArrayList<>();
+        for (INDArray[] sample : samples)
+            features.add(new INDArray[]{sample[0], sample[1]});
+        return features;
+    }
+}
@@ -0,0 +1,59 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.inference.GeneratorPool;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput of {@link GeneratorPool} for increasing number of concurrent threads, up to the pool size.
+ * Uses randomly initialized network, so it runs without trained models.
+ * Run with OMP_NUM_THREADS set to a fraction of the cores, e.g. 1, to get a pool larger than one replica.
+ *
+ * Arguments: [requests per thread] (default 5) [pool size] (default GeneratorPool.defaultSize())
+ */
+public class GeneratorPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : GeneratorPool.defaultSize();
+
+        GAN gan = new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+        ComputationGraph generator = gan.getGenerator();
+        GeneratorPool pool = new GeneratorPool(generator, size);
+
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]});
+        pool.output(image, mask);
+
+        System.out.println(String.format("%-10s %14s %10s", "threads", "images/s", "speedup"));
+        double single = 0.0;
+        for (int threads = 1; ; threads = Math.min(2 * threads, size)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<INDArray>> results = new ArrayList<>();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < threads * requests; i++)
+                results.add(executor.submit(() -> pool.output(image, mask)));
+            for (Future<INDArray> result : results)
+                result.get();
+            double throughput = threads * requests / ((System.nanoTime() - start) / 1e9);
+            executor.shutdown();
+
+            if (threads == 1)
+                single = throughput;
+            System.out.println(String.format("%-10d %14.2f %10.2f", threads, throughput, throughput / single));
+
+            if (threads == size)
+                break;
+        }
+    }
+}
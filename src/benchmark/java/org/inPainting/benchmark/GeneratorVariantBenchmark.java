@@ -0,0 +1,75 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.descriptor.NetworkDescriptor;
+import org.inPainting.nn.descriptor.NetworkDescriptorLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prints FLOPs, parameters and CPU latency of generator variants created by {@link GeneratorBuilder},
+ * or of network descriptors given as arguments (see {@link NetworkDescriptorLoader}).
+ * Uses randomly initialized networks, so it runs without trained models.
+ *
+ * Arguments: [iterations] (default 5) [descriptor files...]
+ */
+public class GeneratorVariantBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        Map<String, NetworkDescriptor> variants = new LinkedHashMap<>();
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++)
+                variants.put(new File(args[i]).getName(), NetworkDescriptorLoader.load(new File(args[i])));
+        } else {
+            for (GeneratorBuilder variant : new GeneratorBuilder[]{
+                    new GeneratorBuilder(),
+                    new GeneratorBuilder().widthMultiplier(0.5),
+                    new GeneratorBuilder().widthMultiplier(0.25),
+                    new GeneratorBuilder().separable(true),
+                    new GeneratorBuilder().widthMultiplier(0.5).separable(true),
+                    new GeneratorBuilder().widthMultiplier(0.5).depth(3),
+                    new GeneratorBuilder().widthMultiplier(0.25).depth(3).separable(true)}) {
+                String name = String.format("w=%.2f d=%d%s", variant.getWidthMultiplier(), variant.getDepth(),
+                        variant.isSeparable() ? " separable" : "");
+                variants.put(name, NetworkDescriptor.defaults().withGenerator(variant::build));
+            }
+        }
+
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]});
+
+        StringBuilder table = new StringBuilder(String.format("%-32s %12s %12s %10s %10s%n",
+                "variant", "GFLOPs", "params", "mean ms", "p95 ms"));
+
+        for (Map.Entry<String, NetworkDescriptor> variant : variants.entrySet()) {
+            GAN gan = new GAN.Builder()
+                    .descriptor(variant.getValue())
+                    .seed(12345)
+                    .build();
+            ComputationGraph generator = gan.getGenerator();
+
+            long flops = FlopCounter.count(generator.getConfiguration(),
+                    InputType.convolutional(GAN._InputShape[0][2], GAN._InputShape[0][3], GAN._InputShape[0][1]),
+                    InputType.convolutional(GAN._InputShape[1][2], GAN._InputShape[1][3], GAN._InputShape[1][1]));
+
+            String name = variant.getKey();
+            LatencyBenchmark.Result result = LatencyBenchmark.run(name, 1, iterations,
+                    () -> generator.outputSingle(image, mask));
+
+            table.append(String.format("%-32s %12.2f %12d %10.2f %10.2f%n",
+                    name, flops / 1e9, generator.numParams(), result.getMean(), result.getP95()));
+        }
+
+        System.out.println(table);
+    }
+}
@@ -0,0 +1,54 @@
+package org.inPainting.benchmark;
+
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Latency of converting a generator output to pixels: the former per pixel getDouble loop,
+ * the bulk ARGB packing used by the GUI preview and PNG encoding of the service path.
+ * Runs headless, JavaFX is not started.
+ *
+ * Arguments: [size] (default 256) [iterations] (default 20)
+ */
+public class ImageRenderingBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Nd4j.getRandom().setSeed(12345);
+        INDArray image = Nd4j.rand(DataType.FLOAT, 1, 3, size, size);
+
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(LatencyBenchmark.run("per pixel getDouble", 1, iterations, () -> perPixel(image, size)));
+        System.out.println(LatencyBenchmark.run("bulk ARGB", 2, iterations, () -> ImageLoader.toArgb(image)));
+        System.out.println(LatencyBenchmark.run("BufferedImage", 2, iterations, () -> ImageLoader.toBufferedImage(image)));
+        System.out.println(LatencyBenchmark.run("PNG bytes", 2, iterations, () -> {
+            try {
+                ImageLoader.toPng(image);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    /**
+     * Pixel reads of the former ImageLoader.drawImage, without the JavaFX writes.
+     */
+    private static int[] perPixel(INDArray data, int size) {
+        int[] argb = new int[size * size];
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++) {
+                int r = (int) Math.round(data.getDouble(0, 0, y, x) * 255.0);
+                int g = (int) Math.round(data.getDouble(0, 1, y, x) * 255.0);
+                int b = (int) Math.round(data.getDouble(0, 2, y, x) * 255.0);
+                argb[y * size + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        return argb;
+    }
+}
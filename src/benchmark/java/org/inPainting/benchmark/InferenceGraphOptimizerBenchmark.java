@@ -0,0 +1,46 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.inference.InferenceGraphOptimizer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Compares latency and outputs of the generator and discriminator before and after
+ * {@link InferenceGraphOptimizer}. Uses randomly initialized networks, so it runs without trained models.
+ *
+ * Arguments: [iterations] (default 10)
+ */
+public class InferenceGraphOptimizerBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        GAN gan = new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]});
+
+        ComputationGraph generator = gan.getGenerator();
+        ComputationGraph optimizedGenerator = InferenceGraphOptimizer.optimize(generator);
+        ComputationGraph optimizedDiscriminator = InferenceGraphOptimizer.optimize(gan.getDiscriminator());
+
+        INDArray generated = generator.outputSingle(image, mask);
+        INDArray[] discriminatorInput = {generated, image, mask};
+
+        System.out.println("generator vertices: " + generator.getVertices().length + " -> " + optimizedGenerator.getVertices().length);
+        System.out.println("generator max abs diff: "
+                + generated.sub(optimizedGenerator.outputSingle(image, mask)).amaxNumber());
+        System.out.println("discriminator vertices: " + gan.getDiscriminator().getVertices().length + " -> " + optimizedDiscriminator.getVertices().length);
+        System.out.println("discriminator max abs diff: "
+                + gan.getDiscriminator().outputSingle(discriminatorInput).sub(optimizedDiscriminator.outputSingle(discriminatorInput)).amaxNumber());
+
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(LatencyBenchmark.run("generator", 2, iterations, () -> generator.outputSingle(image, mask)));
+        System.out.println(LatencyBenchmark.run("generator optimized", 2, iterations, () -> optimizedGenerator.outputSingle(image, mask)));
+        System.out.println(LatencyBenchmark.run("discriminator", 2, iterations, () -> gan.getDiscriminator().outputSingle(discriminatorInput)));
+        System.out.println(LatencyBenchmark.run("discriminator optimized", 2, iterations, () -> optimizedDiscriminator.outputSingle(discriminatorInput)));
+    }
+}
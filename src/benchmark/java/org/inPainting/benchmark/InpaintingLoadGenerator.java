@@ -0,0 +1,112 @@
+package org.inPainting.benchmark;
+
+import org.inPainting.nn.GAN;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator of the REST inpainting endpoint, sends requests from concurrent clients
+ * and prints throughput and latency. Start the application first.
+ *
+ * Uses ./data/256/inputs/input1.png and its mask when they exist, otherwise random image and mask.
+ *
+ * Arguments: [url] (default http://localhost:8080/inpaint) [clients] (default 8) [requests] (default 200)
+ */
+public class InpaintingLoadGenerator {
+
+    private static final String BOUNDARY = "----inpainting-load-generator";
+
+    public static void main(String[] args) throws Exception {
+        URL url = new URL(args.length > 0 ? args[0] : "http://localhost:8080/inpaint");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        File imageFile = new File("./data/256/inputs/input1.png");
+        File maskFile = new File("./data/256/inputs/input1_mask.png");
+        byte[] body = imageFile.exists() && maskFile.exists()
+                ? multipart(Files.readAllBytes(imageFile.toPath()), Files.readAllBytes(maskFile.toPath()))
+                : multipart(randomPng(GAN._InputShape[0][1], false), randomPng(GAN._InputShape[1][1], true));
+
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Double>> latencies = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++)
+            latencies.add(executor.submit(() -> {
+                long requestStart = System.nanoTime();
+                if (!send(url, body))
+                    failures.incrementAndGet();
+                return (System.nanoTime() - requestStart) / 1e6;
+            }));
+
+        double[] times = new double[requests];
+        for (int i = 0; i < requests; i++)
+            times[i] = latencies.get(i).get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        System.out.println(String.format("%d requests, %d clients, %d failed, %.2f requests/s",
+                requests, clients, failures.get(), requests / seconds));
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(new LatencyBenchmark.Result("request latency", times));
+    }
+
+    private static boolean send(URL url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        try (InputStream input = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] buffer = new byte[8192];
+            if (input != null)
+                while (input.read(buffer) > 0)
+                    continue;
+        }
+        return status == 200;
+    }
+
+    private static byte[] multipart(byte[] image, byte[] mask) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        part(body, "image", image);
+        part(body, "mask", mask);
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return body.toByteArray();
+    }
+
+    private static void part(ByteArrayOutputStream body, String name, byte[] content) throws IOException {
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + name + ".png\"\r\n"
+                + "Content-Type: image/png\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.write(content);
+        body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] randomPng(int channels, boolean mask) throws IOException {
+        INDArray image = Nd4j.rand(new int[]{1, channels, GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        if (mask)
+            image = image.gt(0.8).castTo(image.dataType());
+        //masks are written as gray RGB images
+        INDArray rgb = channels == 3 ? image : Nd4j.concat(1, image, image, image);
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageLoader.writePng(rgb, png);
+        return png.toByteArray();
+    }
+}
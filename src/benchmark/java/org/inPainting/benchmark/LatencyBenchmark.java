@@ -0,0 +1,63 @@
+package org.inPainting.benchmark;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Simple wall clock benchmark used by the benchmark main classes.
+ */
+public final class LatencyBenchmark {
+
+    private LatencyBenchmark() {
+    }
+
+    /**
+     * @param name name of the benchmark row
+     * @param warmup number of not measured runs
+     * @param iterations number of measured runs
+     * @param action measured action
+     * @return latency statistics in milliseconds
+     */
+    public static Result run(String name, int warmup, int iterations, Runnable action) {
+        for (int i = 0; i < warmup; i++)
+            action.run();
+
+        double[] times = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            action.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        return new Result(name, times);
+    }
+
+    public static String header() {
+        return String.format("%-40s %10s %10s %10s", "benchmark", "mean ms", "p50 ms", "p95 ms");
+    }
+
+    public static class Result {
+        @Getter
+        private final String name;
+        @Getter
+        private final double mean;
+        @Getter
+        private final double p50;
+        @Getter
+        private final double p95;
+
+        public Result(String name, double[] times) {
+            double[] sorted = times.clone();
+            Arrays.sort(sorted);
+            this.name = name;
+            this.mean = Arrays.stream(sorted).average().orElse(0);
+            this.p50 = sorted[sorted.length / 2];
+            this.p95 = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.95) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %10.2f %10.2f %10.2f", name, mean, p50, p95);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.inPainting.benchmark;
+
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.profiling.LayerProfiler;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+
+/**
+ * Per layer forward/backward profile of GAN.fit on random images, by {@link LayerProfiler} attached to
+ * the Gan network and the discriminator. Reports are written to profiles/ and the slowest layers are printed.
+ *
+ * Arguments: [skipped steps] (default 4) [profiled steps] (default 8) [printed layers] (default 15)
+ */
+public class LayerProfileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int skip = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int printed = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+
+        Nd4j.getRandom().setSeed(12345);
+        GAN gan = new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+        File directory = new File("profiles");
+        LayerProfiler network = new LayerProfiler("network", skip, iterations, directory);
+        LayerProfiler discriminator = new LayerProfiler("discriminator", skip, iterations, directory);
+        gan.getNetwork().addListeners(network);
+        gan.getDiscriminator().addListeners(discriminator);
+
+        //discriminator is fit three times per step it is trained in
+        for (int step = 0; network.getProfiled() < iterations || discriminator.getProfiled() < iterations; step++)
+            gan.fit(next(), step % 4 == 0);
+
+        print("network", network, printed);
+        print("discriminator", discriminator, printed);
+    }
+
+    private static void print(String name, LayerProfiler profiler, int printed) {
+        System.out.println(name + ", mean ms per iteration:");
+        System.out.println(String.format("%-24s %-40s %10s %10s", "vertex", "type", "forward", "backward"));
+        profiler.sorted().stream().limit(printed).forEach(profile -> System.out.println(String.format("%-24s %-40s %10.3f %10.3f",
+                profile.getVertex(), profile.getType(),
+                profile.getForwardNanos() / 1e6 / profiler.getProfiled(), profile.getBackwardNanos() / 1e6 / profiler.getProfiled())));
+    }
+
+    private static MultiDataSet next() {
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]}).gt(0.8)
+                .castTo(image.dataType());
+        return new MultiDataSet(new INDArray[]{image, mask}, new INDArray[]{image});
+    }
+}
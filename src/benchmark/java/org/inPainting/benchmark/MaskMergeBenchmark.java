@@ -0,0 +1,71 @@
+package org.inPainting.benchmark;
+
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Latency of merging generated images into the input by the mask: the former per pixel loop,
+ * the broadcast merge of single images and of a whole batch, and feathered blending.
+ *
+ * Arguments: [size] (default 256) [batch size] (default 8) [iterations] (default 20)
+ */
+public class MaskMergeBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Nd4j.getRandom().setSeed(12345);
+        INDArray input = Nd4j.rand(DataType.FLOAT, batchSize, 3, size, size);
+        INDArray generated = Nd4j.rand(DataType.FLOAT, batchSize, 3, size, size);
+        INDArray mask = Nd4j.rand(DataType.FLOAT, batchSize, 1, size, size).gt(0.7).castTo(DataType.FLOAT);
+        INDArray[] inputs = new INDArray[batchSize];
+        INDArray[] generatedImages = new INDArray[batchSize];
+        INDArray[] masks = new INDArray[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            inputs[i] = input.get(NDArrayIndex.interval(i, i + 1)).dup();
+            generatedImages[i] = generated.get(NDArrayIndex.interval(i, i + 1)).dup();
+            masks[i] = mask.get(NDArrayIndex.interval(i, i + 1)).dup();
+        }
+
+        INDArray expected = perPixel(inputs[0], masks[0], generatedImages[0], size);
+        INDArray actual = ImageLoader.mergeImagesByMask(inputs[0], masks[0], generatedImages[0], size, size);
+        System.out.println("max difference to per pixel merge: " + expected.sub(actual).amaxNumber());
+
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(LatencyBenchmark.run("per pixel, " + batchSize + " images", 1, iterations, () -> {
+            for (int i = 0; i < batchSize; i++)
+                perPixel(inputs[i], masks[i], generatedImages[i], size);
+        }));
+        System.out.println(LatencyBenchmark.run("broadcast, " + batchSize + " images", 2, iterations, () -> {
+            for (int i = 0; i < batchSize; i++)
+                ImageLoader.mergeImagesByMask(inputs[i], masks[i], generatedImages[i], size, size);
+        }));
+        System.out.println(LatencyBenchmark.run("broadcast batch of " + batchSize, 2, iterations,
+                () -> ImageLoader.mergeImagesByMask(input, mask, generated, size, size)));
+        System.out.println(LatencyBenchmark.run("in place batch of " + batchSize, 2, iterations,
+                () -> ImageLoader.mergeInPlace(input, mask, generated)));
+        INDArray feathered = ImageLoader.featherMask(mask, 4);
+        System.out.println(LatencyBenchmark.run("feather mask radius 4, batch", 2, iterations,
+                () -> ImageLoader.featherMask(mask, 4)));
+        System.out.println(LatencyBenchmark.run("feathered blend in place, batch", 2, iterations,
+                () -> ImageLoader.blendInPlace(input, feathered, generated)));
+    }
+
+    /**
+     * Former implementation of ImageLoader.mergeImagesByMask.
+     */
+    private static INDArray perPixel(INDArray image, INDArray mask, INDArray generated, int size) {
+        INDArray result = generated.dup();
+        for (int y = 0; y < size; y++)
+            for (int x = 0; x < size; x++)
+                if (mask.getDouble(0, 0, y, x) == 0.0D)
+                    for (int c = 0; c < 3; c++)
+                        result.putScalar(new int[]{0, c, y, x}, image.getDouble(0, c, y, x));
+        return result;
+    }
+}
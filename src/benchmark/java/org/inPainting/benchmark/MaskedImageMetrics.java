@@ -0,0 +1,39 @@
+package org.inPainting.benchmark;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Image quality metrics computed only inside of the holes of the mask.
+ */
+public final class MaskedImageMetrics {
+
+    private MaskedImageMetrics() {
+    }
+
+    /**
+     * @param output generated images [n, 3, h, w]
+     * @param expected expected images [n, 3, h, w]
+     * @param mask masks [n, 1, h, w], non zero values mark holes
+     * @return mean absolute error of the hole pixels
+     */
+    public static double l1(INDArray output, INDArray expected, INDArray mask) {
+        INDArray holes = holes(output, mask);
+        double count = holes.sumNumber().doubleValue();
+        return count == 0 ? 0.0 : output.sub(expected).muli(holes).norm1Number().doubleValue() / count;
+    }
+
+    /**
+     * @return peak signal to noise ratio of the hole pixels in dB, values are in [0, 1]
+     */
+    public static double psnr(INDArray output, INDArray expected, INDArray mask) {
+        INDArray holes = holes(output, mask);
+        double count = holes.sumNumber().doubleValue();
+        INDArray difference = output.sub(expected).muli(holes);
+        double mse = count == 0 ? 0.0 : difference.muli(difference).sumNumber().doubleValue() / count;
+        return mse == 0.0 ? Double.POSITIVE_INFINITY : 10.0 * Math.log10(1.0 / mse);
+    }
+
+    private static INDArray holes(INDArray output, INDArray mask) {
+        return mask.neq(0.0).castTo(output.dataType()).broadcast(output.shape());
+    }
+}
@@ -0,0 +1,89 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.serialization.MappedModelSerializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compares loading of ModelSerializer zip and {@link MappedModelSerializer} file of the Gan network:
+ * latency and resident memory (VmRSS, Linux only) after loading.
+ *
+ * Uses gan.zip when it exists, otherwise randomly initialized network written to a temporary file.
+ * Files are read from the page cache after the first run, so the latency is warm start latency.
+ *
+ * Arguments: [gan file] (default gan.zip) [iterations] (default 5)
+ */
+public class ModelLoadingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        File zip = new File(args.length > 0 ? args[0] : "gan.zip");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        if (!zip.exists()) {
+            zip = File.createTempFile("gan", ".zip");
+            zip.deleteOnExit();
+            GAN gan = new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+            ModelSerializer.writeModel(gan.getNetwork(), zip, true);
+        }
+
+        File mapped = File.createTempFile("gan", ".bin");
+        mapped.deleteOnExit();
+        MappedModelSerializer.writeModel(ComputationGraph.load(zip, true), mapped, true);
+        System.out.println("zip " + (zip.length() >> 20) + " MB, mapped " + (mapped.length() >> 20) + " MB");
+
+        File zipFile = zip;
+        System.out.println(String.format("%-40s %10s", "load", "RSS MB"));
+        System.out.println(String.format("%-40s %10d", "zip with updater",
+                residentMemoryAfter(() -> ComputationGraph.load(zipFile, true))));
+        System.out.println(String.format("%-40s %10d", "mapped without updater",
+                residentMemoryAfter(() -> MappedModelSerializer.restoreComputationGraph(mapped, false))));
+
+        System.out.println(LatencyBenchmark.header());
+        System.out.println(LatencyBenchmark.run("zip with updater", 0, iterations, () -> load(() -> ComputationGraph.load(zipFile, true))));
+        System.out.println(LatencyBenchmark.run("zip without updater", 0, iterations, () -> load(() -> ComputationGraph.load(zipFile, false))));
+        System.out.println(LatencyBenchmark.run("mapped with updater", 0, iterations, () -> load(() -> MappedModelSerializer.restoreComputationGraph(mapped, true))));
+        System.out.println(LatencyBenchmark.run("mapped without updater", 0, iterations, () -> load(() -> MappedModelSerializer.restoreComputationGraph(mapped, false))));
+    }
+
+    private interface Loader {
+        ComputationGraph load() throws IOException;
+    }
+
+    private static ComputationGraph load(Loader loader) {
+        try {
+            return loader.load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return growth of resident memory in MB while the loaded network is reachable
+     */
+    private static long residentMemoryAfter(Loader loader) throws IOException {
+        System.gc();
+        long before = residentMemory();
+        ComputationGraph graph = loader.load();
+        long after = residentMemory();
+        return graph != null ? (after - before) >> 10 : 0;
+    }
+
+    /**
+     * @return VmRSS in kB, 0 when /proc is not available
+     */
+    private static long residentMemory() throws IOException {
+        if (!new File("/proc/self/status").exists())
+            return 0;
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+            if (line.startsWith("VmRSS:"))
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        return 0;
+    }
+}
@@ -0,0 +1,91 @@
+package org.inPainting.benchmark;
+
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.inference.GeneratorSnapshot;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Training throughput of GAN.fit without previews and with previews rendered the way the learning GUI does:
+ * {@link GeneratorSnapshot} refreshed every interval steps and rendered on a separate thread, skipped while
+ * the previous one runs. Prints steps per second of both runs and their difference for every preview scale.
+ *
+ * Arguments: [steps] (default 200) [preview interval] (default 20) [scales] (default 1,2,4)
+ */
+public class PreviewOverheadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int interval = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String[] scales = (args.length > 2 ? args[2] : "1,2,4").split(",");
+
+        Nd4j.getRandom().setSeed(12345);
+        GAN gan = new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+        MultiDataSet sample = next();
+
+        train(gan, sample, 10, 0, null, null);
+        double baseline = train(gan, sample, steps, 0, null, null);
+        System.out.println(String.format("%-16s %12s %10s %10s", "previews", "steps/s", "change", "previews"));
+        System.out.println(String.format("%-16s %12.3f %10s %10d", "off", baseline, "", 0));
+
+        for (String scale : scales) {
+            GeneratorSnapshot snapshot = new GeneratorSnapshot(gan.getGenerator(),
+                    GAN._InputShape[0][2], GAN._InputShape[0][3], Integer.parseInt(scale.trim()));
+            AtomicInteger rendered = new AtomicInteger();
+            double withPreviews = train(gan, sample, steps, interval, snapshot, rendered);
+            System.out.println(String.format("%-16s %12.3f %9.1f%% %10d", "scale " + scale.trim(), withPreviews,
+                    100.0 * (withPreviews - baseline) / baseline, rendered.get()));
+        }
+    }
+
+    /**
+     * @param snapshot snapshot rendering previews, null to train without previews
+     * @param rendered number of rendered previews
+     * @return training steps per second
+     */
+    private static double train(GAN gan, MultiDataSet sample, int steps, int interval,
+                                GeneratorSnapshot snapshot, AtomicInteger rendered) throws InterruptedException {
+        ExecutorService previewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "benchmark-preview");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        AtomicBoolean pending = new AtomicBoolean();
+
+        long start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            gan.fit(sample, step % 4 == 0);
+            if (snapshot != null && step % interval == 0 && pending.compareAndSet(false, true)) {
+                snapshot.tryRefresh(step);
+                previewExecutor.submit(() -> {
+                    try {
+                        snapshot.output(sample.getFeatures()[0], sample.getFeatures()[1]);
+                        rendered.incrementAndGet();
+                    } finally {
+                        pending.set(false);
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        previewExecutor.shutdown();
+        previewExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        return steps / seconds;
+    }
+
+    private static MultiDataSet next() {
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]}).gt(0.8)
+                .castTo(image.dataType());
+        return new MultiDataSet(new INDArray[]{image, mask}, new INDArray[]{image});
+    }
+}
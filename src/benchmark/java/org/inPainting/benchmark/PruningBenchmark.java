@@ -0,0 +1,120 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.inPainting.nn.pruning.ChannelPruner;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prunes generator channels with {@link ChannelPruner} at several sparsity levels, fine-tunes every pruned Gan
+ * by GAN.fit and compares FLOPs, parameters, latency and L1/PSNR in the holes with the dense generator.
+ * Pruned generators are exported as generator-pruned-[sparsity].zip.
+ *
+ * Uses trained networks (gan.zip, discriminator.zip) and ./data/256 training set when they exist,
+ * otherwise randomly initialized networks and random images.
+ *
+ * Arguments: [ranking] magnitude or taylor (default magnitude) [fine-tune steps] (default 20)
+ * [iterations] (default 5) [samples] (default 8)
+ */
+public class PruningBenchmark {
+
+    private static final double[] SPARSITY = {0.25, 0.5, 0.75};
+
+    public static void main(String[] args) throws Exception {
+        boolean taylor = args.length > 0 && args[0].equalsIgnoreCase("taylor");
+        int fineTuneSteps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        File ganFile = new File("gan.zip");
+        File discFile = new File("discriminator.zip");
+        GAN gan = ganFile.exists() && discFile.exists()
+                ? new GAN(ComputationGraph.load(discFile, true), ComputationGraph.load(ganFile, true))
+                : new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+
+        ImageDataSetIterator dataSet = new File("./data/256/expected/").isDirectory() ? new ImageLoader().prepareInMemoryData() : null;
+        List<MultiDataSet> evaluation = new ArrayList<>();
+        for (int i = 0; i < samples; i++)
+            evaluation.add(next(dataSet));
+
+        //only generator layers are pruned
+        List<String> layers = ChannelPruner.prunableLayers(gan.getNetwork().getConfiguration());
+        layers.retainAll(gan.getGenerator().getConfiguration().getVertices().keySet());
+
+        Map<String, INDArray> scores;
+        if (taylor) {
+            List<MultiDataSet> ranking = new ArrayList<>();
+            for (int i = 0; i < ChannelPruner.DEFAULT_RANKING_SAMPLES; i++)
+                ranking.add(next(dataSet));
+            scores = ChannelPruner.taylorScores(gan.getGenerator(), layers, ranking);
+        } else
+            scores = ChannelPruner.magnitudeScores(gan.getNetwork(), layers);
+        System.out.println("pruned layers (" + (taylor ? "taylor" : "magnitude") + " ranking): " + layers);
+
+        StringBuilder table = new StringBuilder(String.format("%-12s %10s %12s %10s %10s %10s %10s%n",
+                "sparsity", "GFLOPs", "params", "mean ms", "speedup", "L1", "PSNR dB"));
+        double denseLatency = report(table, "dense", gan.getGenerator(), evaluation, iterations, 0.0);
+
+        for (double sparsity : SPARSITY) {
+            GAN pruned = ChannelPruner.prune(gan, scores, sparsity);
+            for (int step = 0; step < fineTuneSteps; step++)
+                pruned.fit(next(dataSet), pruned.getDiscriminator() != null && step % 4 == 0);
+
+            ComputationGraph generator = pruned.getGenerator();
+            report(table, String.format("%.2f", sparsity), generator, evaluation, iterations, denseLatency);
+            ModelSerializer.writeModel(generator, new File(String.format("generator-pruned-%.2f.zip", sparsity)), false);
+        }
+
+        System.out.println(table);
+    }
+
+    /**
+     * Appends row of the table.
+     *
+     * @return mean latency in milliseconds
+     */
+    private static double report(StringBuilder table, String name, ComputationGraph generator,
+                                 List<MultiDataSet> evaluation, int iterations, double denseLatency) {
+        long flops = FlopCounter.count(generator.getConfiguration(),
+                InputType.convolutional(GAN._InputShape[0][2], GAN._InputShape[0][3], GAN._InputShape[0][1]),
+                InputType.convolutional(GAN._InputShape[1][2], GAN._InputShape[1][3], GAN._InputShape[1][1]));
+
+        double l1 = 0.0;
+        double psnr = 0.0;
+        for (MultiDataSet sample : evaluation) {
+            INDArray output = generator.outputSingle(sample.getFeatures());
+            l1 += MaskedImageMetrics.l1(output, sample.getLabels(0), sample.getFeatures(1)) / evaluation.size();
+            psnr += MaskedImageMetrics.psnr(output, sample.getLabels(0), sample.getFeatures(1)) / evaluation.size();
+        }
+
+        INDArray[] input = evaluation.get(0).getFeatures();
+        LatencyBenchmark.Result result = LatencyBenchmark.run(name, 1, iterations, () -> generator.outputSingle(input));
+        double speedup = denseLatency > 0.0 ? denseLatency / result.getMean() : 1.0;
+
+        table.append(String.format("%-12s %10.2f %12d %10.2f %10.2f %10.5f %10.2f%n",
+                name, flops / 1e9, generator.numParams(), result.getMean(), speedup, l1, psnr));
+        return result.getMean();
+    }
+
+    private static MultiDataSet next(ImageDataSetIterator dataSet) {
+        if (dataSet != null)
+            return dataSet.nextRandom();
+
+        INDArray image = Nd4j.rand(new int[]{GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]});
+        INDArray mask = Nd4j.rand(new int[]{GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]}).gt(0.8)
+                .castTo(image.dataType());
+        return new MultiDataSet(new INDArray[]{image, mask}, new INDArray[]{image});
+    }
+}
@@ -0,0 +1,53 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.inference.PyramidInference;
+import org.inPainting.nn.inference.TiledInference;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Compares latency of {@link TiledInference} and {@link PyramidInference} on a square image with a large hole
+ * in the middle. Uses randomly initialized generator from {@link GeneratorBuilder}, so it runs without trained models.
+ *
+ * Arguments: [iterations] (default 3) [image size] (default 1024) [width multiplier] (default 0.25)
+ */
+public class PyramidInferenceBenchmark {
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        double width = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+
+        GeneratorBuilder generatorBuilder = new GeneratorBuilder().widthMultiplier(width);
+        GAN gan = new GAN.Builder()
+                .generatorLayers(generatorBuilder::build)
+                .discriminator(NeuralNetwork::getDiscriminator)
+                .seed(12345)
+                .build();
+        ComputationGraph generator = gan.getGenerator();
+
+        INDArray image = Nd4j.rand(new int[]{1, 3, size, size});
+        INDArray mask = Nd4j.zeros(1, 1, size, size);
+        mask.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                NDArrayIndex.interval(size * 3 / 10, size * 7 / 10), NDArrayIndex.interval(size * 3 / 10, size * 7 / 10)).assign(1);
+
+        TiledInference tiled = new TiledInference(generator);
+        PyramidInference pyramid = new PyramidInference(generator);
+        PyramidInference coarse = new PyramidInference(generator, TiledInference.DEFAULT_TILE_SIZE,
+                PyramidInference.DEFAULT_REFINEMENT_OVERLAP, false);
+
+        System.out.println(String.format("generator w=%.2f", width));
+        System.out.println(LatencyBenchmark.header());
+        //naive tiling cost, every tile of the image evaluated
+        INDArray full = Nd4j.ones(1, 1, size, size);
+        System.out.println(LatencyBenchmark.run("tiled all tiles " + size + "x" + size, 1, iterations, () -> tiled.inpaint(image, full)));
+        System.out.println(LatencyBenchmark.run("tiled " + size + "x" + size, 1, iterations, () -> tiled.inpaint(image, mask)));
+        System.out.println(LatencyBenchmark.run("pyramid " + size + "x" + size, 1, iterations, () -> pyramid.inpaint(image, mask)));
+        System.out.println(LatencyBenchmark.run("pyramid coarse only " + size + "x" + size, 1, iterations, () -> coarse.inpaint(image, mask)));
+    }
+}
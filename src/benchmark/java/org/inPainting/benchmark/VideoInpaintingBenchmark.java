@@ -0,0 +1,46 @@
+package org.inPainting.benchmark;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.video.VideoInpaintingPipeline;
+
+import java.io.File;
+
+/**
+ * Inpaints a video with {@link VideoInpaintingPipeline} and reports frame rate and tile reuse,
+ * first with temporal reuse disabled (tolerance -1, every tile evaluated), then with the given tolerance.
+ * Uses generator of gan.zip when it exists, otherwise randomly initialized network.
+ *
+ * Arguments: input video, mask image or video, output video [tolerance] (default VideoInpaintingPipeline.DEFAULT_TOLERANCE)
+ */
+public class VideoInpaintingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: VideoInpaintingBenchmark <input video> <mask image or video> <output video> [tolerance]");
+            return;
+        }
+        File input = new File(args[0]);
+        File mask = new File(args[1]);
+        File output = new File(args[2]);
+        double tolerance = args.length > 3 ? Double.parseDouble(args[3]) : VideoInpaintingPipeline.DEFAULT_TOLERANCE;
+
+        File ganFile = new File("gan.zip");
+        GAN gan = ganFile.exists()
+                ? new GAN(null, ComputationGraph.load(ganFile, false))
+                : new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(12345).build();
+        ComputationGraph generator = gan.getGenerator();
+
+        System.out.println(String.format("%-12s %10s %10s %10s %10s", "tolerance", "frames", "seconds", "fps", "reuse"));
+        report("none", new VideoInpaintingPipeline(generator, VideoInpaintingPipeline.DEFAULT_QUEUE_CAPACITY, -1.0)
+                .run(input, mask, output));
+        report(String.valueOf(tolerance), new VideoInpaintingPipeline(generator, VideoInpaintingPipeline.DEFAULT_QUEUE_CAPACITY, tolerance)
+                .run(input, mask, output));
+    }
+
+    private static void report(String name, VideoInpaintingPipeline.Statistics statistics) {
+        System.out.println(String.format("%-12s %10d %10.2f %10.2f %9.1f%%", name, statistics.getFrames(),
+                statistics.getSeconds(), statistics.framesPerSecond(), 100.0 * statistics.reuseRate()));
+    }
+}
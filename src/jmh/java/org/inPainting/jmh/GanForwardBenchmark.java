@@ -0,0 +1,35 @@
+package org.inPainting.jmh;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.res.NetResult;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Inference of the generator alone and of the combined Gan graph (generator followed by the discriminator).
+ */
+@State(Scope.Benchmark)
+public class GanForwardBenchmark {
+
+    private GAN gan;
+    private ComputationGraph generator;
+    private INDArray[] features;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        gan = SyntheticData.gan();
+        generator = gan.getGenerator();
+        features = SyntheticData.sample().getFeatures();
+    }
+
+    @Benchmark
+    public INDArray generator() {
+        return generator.outputSingle(features);
+    }
+
+    @Benchmark
+    public NetResult combined() {
+        return gan.getOutput(features);
+    }
+}
@@ -0,0 +1,63 @@
+package org.inPainting.jmh;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Training steps on one synthetic sample: the discriminator alone on prebuilt real and fake sets,
+ * the discriminator step of the Gan ({@link GAN#fitDiscriminator(MultiDataSet)}, which also runs the Gan forward pass
+ * and copies the discriminator into the Gan), and a full {@link GAN#fit(MultiDataSet, boolean)} step with and
+ * without the discriminator update. Parameters change between invocations, the cost does not.
+ */
+@State(Scope.Benchmark)
+public class GanTrainingBenchmark {
+
+    private GAN gan;
+    private MultiDataSet sample;
+    private MultiDataSet realSet;
+    private MultiDataSet fakeSet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        gan = SyntheticData.gan();
+        sample = SyntheticData.sample();
+
+        INDArray image = sample.getFeatures()[0];
+        INDArray mask = sample.getFeatures()[1];
+        INDArray expected = sample.getLabels()[0];
+        INDArray generated = gan.getNetwork().output(sample.getFeatures())[1];
+        INDArray labels = gan.getDiscriminator().outputSingle(expected, image, mask);
+        realSet = new MultiDataSet(new INDArray[]{expected, image, mask}, new INDArray[]{Nd4j.onesLike(labels)});
+        fakeSet = new MultiDataSet(new INDArray[]{generated, image, mask}, new INDArray[]{Nd4j.zerosLike(labels)});
+    }
+
+    @Benchmark
+    public ComputationGraph discriminatorFit() {
+        ComputationGraph discriminator = gan.getDiscriminator();
+        discriminator.fit(realSet);
+        discriminator.fit(fakeSet);
+        return discriminator;
+    }
+
+    @Benchmark
+    public GAN fitDiscriminatorStep() {
+        gan.fitDiscriminator(sample);
+        return gan;
+    }
+
+    @Benchmark
+    public GAN fitWithDiscriminator() {
+        gan.fit(sample, true);
+        return gan;
+    }
+
+    @Benchmark
+    public GAN fitWithoutDiscriminator() {
+        gan.fit(sample, false);
+        return gan;
+    }
+}
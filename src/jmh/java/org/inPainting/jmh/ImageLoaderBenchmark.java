@@ -0,0 +1,42 @@
+package org.inPainting.jmh;
+
+import javafx.scene.image.WritableImage;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering of a generator output for the GUI and merging it into the input by the mask.
+ */
+@State(Scope.Thread)
+public class ImageLoaderBenchmark {
+
+    private final ImageLoader imageLoader = new ImageLoader();
+    private INDArray image;
+    private INDArray mask;
+    private INDArray generated;
+    private int width;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        SyntheticData.startJavaFx();
+        MultiDataSet sample = SyntheticData.sample();
+        image = sample.getFeatures()[0];
+        mask = sample.getFeatures()[1];
+        generated = sample.getLabels()[0];
+        height = (int) image.size(2);
+        width = (int) image.size(3);
+    }
+
+    @Benchmark
+    public WritableImage drawImage() {
+        return imageLoader.drawImage(generated, width, height);
+    }
+
+    @Benchmark
+    public INDArray mergeImagesByMask() {
+        return ImageLoader.mergeImagesByMask(image, mask, generated, width, height);
+    }
+}
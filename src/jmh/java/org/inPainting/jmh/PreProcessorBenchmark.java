@@ -0,0 +1,34 @@
+package org.inPainting.jmh;
+
+import org.inPainting.nn.dataSets.preProcessors.GrayDataPreProcessor;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@link GrayDataPreProcessor} on one sample, the sample is copied before every invocation.
+ */
+@State(Scope.Thread)
+public class PreProcessorBenchmark {
+
+    private final GrayDataPreProcessor preProcessor = new GrayDataPreProcessor();
+    private MultiDataSet source;
+    private MultiDataSet sample;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        //grayscale conversion uses JavaFX Color
+        SyntheticData.startJavaFx();
+        source = SyntheticData.sample();
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        sample = source.copy();
+    }
+
+    @Benchmark
+    public MultiDataSet gray() {
+        preProcessor.preProcess(sample);
+        return sample;
+    }
+}
@@ -0,0 +1,73 @@
+package org.inPainting.jmh;
+
+import javafx.application.Platform;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.NeuralNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Synthetic inputs of the JMH benchmarks, generated from fixed seeds so runs are comparable and need no data set.
+ */
+public final class SyntheticData {
+
+    public static final long SEED = 12345;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return image, mask (about 20% holes) and expected image of the generator input size
+     */
+    public static MultiDataSet sample() {
+        Nd4j.getRandom().setSeed(SEED);
+        INDArray image = Nd4j.rand(DataType.FLOAT, GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]);
+        INDArray mask = Nd4j.rand(DataType.FLOAT, GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3])
+                .gt(0.8).castTo(DataType.FLOAT);
+        INDArray expected = Nd4j.rand(DataType.FLOAT, GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]);
+        return new MultiDataSet(new INDArray[]{image, mask}, new INDArray[]{expected});
+    }
+
+    /**
+     * @return randomly initialized Gan network with the default discriminator
+     */
+    public static GAN gan() {
+        return new GAN.Builder().discriminator(NeuralNetwork::getDiscriminator).seed(SEED).build();
+    }
+
+    /**
+     * Writes random noise PNG of the generator input size, black and white for masks.
+     */
+    public static void writePng(File file, Random random, boolean mask) throws IOException {
+        int width = GAN._InputShape[0][3];
+        int height = GAN._InputShape[0][2];
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                image.setRGB(x, y, mask ? (random.nextDouble() < 0.2 ? 0xFFFFFF : 0) : random.nextInt(0x1000000));
+        ImageIO.write(image, "png", file);
+    }
+
+    /**
+     * Starts JavaFX, needed by JavaFX images, once per JVM.
+     */
+    public static void startJavaFx() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (IllegalStateException e) {
+            //already started
+            return;
+        }
+        started.await();
+    }
+}
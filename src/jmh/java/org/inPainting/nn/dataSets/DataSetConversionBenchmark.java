@@ -0,0 +1,59 @@
+package org.inPainting.nn.dataSets;
+
+import org.inPainting.jmh.SyntheticData;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * PNG decoding and conversion of one input, mask and expected image by both data set iterators.
+ * In the iterators package, convertToDataSet is protected.
+ */
+@State(Scope.Benchmark)
+public class DataSetConversionBenchmark {
+
+    private File directory;
+    private ImageDataSetIterator.FileEntry entry;
+    private ImageFileDataSetIterator fileIterator;
+    private ImageMemoryDataSetIterator memoryIterator;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        SyntheticData.startJavaFx();
+        directory = Files.createTempDirectory("data-set-benchmark").toFile();
+        Random random = new Random(SyntheticData.SEED);
+        File input = new File(directory, "input.png");
+        File mask = new File(directory, "input_mask.png");
+        File expected = new File(directory, "expected.png");
+        SyntheticData.writePng(input, random, false);
+        SyntheticData.writePng(mask, random, true);
+        SyntheticData.writePng(expected, random, false);
+
+        entry = new ImageDataSetIterator.FileEntry(input, mask, expected);
+        fileIterator = new ImageFileDataSetIterator(new ImageDataSetIterator.FileEntry[]{entry});
+        memoryIterator = new ImageMemoryDataSetIterator(new ImageDataSetIterator.FileEntry[]{entry});
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public MultiDataSet fileIterator() throws IOException {
+        return fileIterator.convertToDataSet(entry);
+    }
+
+    @Benchmark
+    public MultiDataSet memoryIterator() throws IOException {
+        return memoryIterator.convertToDataSet(entry);
+    }
+}
@@ -0,0 +1,498 @@
+package org.inPainting.batch;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.inference.GeneratorPool;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless inpainting of many image/mask pairs, e.g. a backlog of files.
+ *
+ * Reading, decoding, batched generator inference, mask merging and PNG encoding run as concurrent stages connected
+ * by bounded queues, every stage on its own threads. Inference uses one thread per {@link GeneratorPool} replica
+ * and batches images of the same size. Outputs are written to a temporary file and moved atomically,
+ * so a stopped job leaves no partial outputs and a restarted job skips pairs whose output already exists.
+ *
+ * Failed pairs (unreadable files, unsupported formats) are logged and counted, the job continues with the others.
+ * Statistics report images per second of busy time of every stage, the stage with the lowest rate is the bottleneck.
+ */
+@Slf4j
+public class BatchInpaintingJob {
+
+    public static final int DEFAULT_BATCH_SIZE = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+    public static final String MASK_SUFFIX = "_mask";
+
+    private static final Item END = new Item(null, null, null);
+
+    private final GeneratorPool pool;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final int threads;
+
+    /**
+     * @param pool replicas of the generator network with "Input" and "Mask" inputs
+     */
+    public BatchInpaintingJob(GeneratorPool pool) {
+        this(pool, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param pool replicas of the generator network with "Input" and "Mask" inputs, one inference thread per replica
+     * @param batchSize maximum number of images of one forward pass
+     * @param queueCapacity maximum number of images waiting between two stages
+     * @param threads number of threads of each of the reading, decoding, merging and encoding stages
+     */
+    public BatchInpaintingJob(GeneratorPool pool, int batchSize, int queueCapacity, int threads) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + batchSize);
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        this.threads = threads;
+    }
+
+    /**
+     * Image/mask pairs of a directory, mask of "name.ext" is "name_mask.ext" (as in ./data/256/inputs).
+     * Output of a pair is "name.png" in the output directory.
+     *
+     * @throws IOException also when two pairs map to the same output, e.g. "a.jpg" and "a.png"
+     */
+    public static List<Entry> listDirectory(File input, File output) throws IOException {
+        File[] files = input.listFiles(File::isFile);
+        if (files == null)
+            throw new IOException("Can not list directory " + input);
+        Arrays.sort(files);
+
+        List<Entry> entries = new ArrayList<>();
+        for (File image : files) {
+            String name = baseName(image);
+            if (name.endsWith(MASK_SUFFIX))
+                continue;
+            File mask = new File(input, name + MASK_SUFFIX + image.getName().substring(name.length()));
+            if (mask.isFile())
+                entries.add(new Entry(image, mask, new File(output, name + ".png")));
+            else
+                log.warn("Skipping " + image + ", mask " + mask + " does not exist");
+        }
+        return checkOutputs(entries);
+    }
+
+    /**
+     * Image/mask pairs of a manifest, every line is "image mask [output]" separated by tabs or spaces,
+     * relative paths are resolved against the manifest directory and output defaults to "image name.png"
+     * in the output directory. Empty lines and lines starting with # are ignored.
+     *
+     * @throws IOException also when two pairs map to the same output
+     */
+    public static List<Entry> readManifest(File manifest, File output) throws IOException {
+        File base = manifest.getAbsoluteFile().getParentFile();
+        List<Entry> entries = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] columns = line.split("\\s+");
+            if (columns.length < 2 || columns.length > 3)
+                throw new IOException("Invalid line " + number + " of manifest " + manifest + ": " + line);
+            File image = resolve(base, columns[0]);
+            File mask = resolve(base, columns[1]);
+            File result = columns.length == 3 ? resolve(output, columns[2]) : new File(output, baseName(image) + ".png");
+            entries.add(new Entry(image, mask, result));
+        }
+        return checkOutputs(entries);
+    }
+
+    /**
+     * Existing outputs are skipped on restart, so a second pair of the same output would be silently
+     * treated as done.
+     *
+     * @throws IOException if two entries have the same output
+     */
+    private static List<Entry> checkOutputs(List<Entry> entries) throws IOException {
+        Map<Path, Entry> outputs = new HashMap<>();
+        for (Entry entry : entries) {
+            Entry previous = outputs.put(entry.getOutput().toPath().toAbsolutePath().normalize(), entry);
+            if (previous != null)
+                throw new IOException("Images " + previous.getImage() + " and " + entry.getImage()
+                        + " have the same output " + entry.getOutput() + ", give explicit outputs in a manifest");
+        }
+        return entries;
+    }
+
+    /**
+     * Inpaints all pairs whose output does not exist yet.
+     *
+     * @return statistics of the run
+     */
+    public Statistics run(List<Entry> entries) throws IOException, InterruptedException {
+        Statistics statistics = new Statistics();
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : entries)
+            if (entry.output.exists())
+                statistics.skipped.incrementAndGet();
+            else
+                pending.add(entry);
+        log.info("Batch inpainting of " + pending.size() + " pairs, " + statistics.skipped.get() + " already done");
+
+        BlockingQueue<Item> listed = new ArrayBlockingQueue<>(pending.size() + 1);
+        for (Entry entry : pending)
+            listed.add(new Item(entry.image, entry.mask, entry.output));
+        listed.add(END);
+
+        BlockingQueue<Item> read = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> generated = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> merged = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> written = new ArrayBlockingQueue<>(pending.size() + 1);
+
+        List<Stage> stages = Arrays.asList(
+                new Stage("read", threads, listed, read, statistics, this::read),
+                new Stage("decode", threads, read, decoded, statistics, this::decode),
+                new Stage("inference", pool.getSize(), decoded, generated, statistics, null),
+                new Stage("merge", threads, generated, merged, statistics, this::merge),
+                new Stage("encode", threads, merged, written, statistics, this::encode));
+        statistics.stages.addAll(stages);
+
+        int total = stages.stream().mapToInt(stage -> stage.threads).sum();
+        ExecutorService executor = Executors.newFixedThreadPool(total);
+        CompletionService<Void> workers = new ExecutorCompletionService<>(executor);
+        long start = System.nanoTime();
+        try {
+            for (Stage stage : stages)
+                for (int i = 0; i < stage.threads; i++)
+                    workers.submit(stage.action == null ? this.inference(stage) : stage::run);
+            for (int i = 0; i < total; i++)
+                workers.take().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Batch inpainting failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        statistics.seconds = (System.nanoTime() - start) / 1e9;
+
+        for (Item item; (item = written.poll()) != null; )
+            if (item != END)
+                statistics.completed.incrementAndGet();
+        log.info(statistics.toString());
+        return statistics;
+    }
+
+    private Item read(Item item) throws IOException {
+        item.imageBytes = Files.readAllBytes(item.image.toPath());
+        item.maskBytes = Files.readAllBytes(item.mask.toPath());
+        return item;
+    }
+
+    private Item decode(Item item) throws IOException {
+        item.imageArray = ImageLoader.readImage(new ByteArrayInputStream(item.imageBytes));
+        item.maskArray = ImageLoader.readMask(new ByteArrayInputStream(item.maskBytes));
+        item.imageBytes = null;
+        item.maskBytes = null;
+        if (item.imageArray.size(2) != item.maskArray.size(2) || item.imageArray.size(3) != item.maskArray.size(3))
+            throw new IOException("Image " + item.image + " and mask " + item.mask + " sizes differ");
+        return item;
+    }
+
+    private Item merge(Item item) {
+        item.result = ImageLoader.mergeInPlace(item.imageArray, item.maskArray, item.generated);
+        item.imageArray = null;
+        item.maskArray = null;
+        item.generated = null;
+        return item;
+    }
+
+    private Item encode(Item item) throws IOException {
+        byte[] png = ImageLoader.toPng(item.result);
+        item.result = null;
+
+        File directory = item.output.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create output directory " + directory);
+        //written to a temporary file first, a restarted job never sees partial outputs
+        File temporary = File.createTempFile(item.output.getName(), ".tmp", directory);
+        try {
+            Files.write(temporary.toPath(), png);
+            Files.move(temporary.toPath(), item.output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        return item;
+    }
+
+    /**
+     * Inference worker, collects decoded images of the same size up to the batch size without waiting
+     * for more than is queued, an image of another size starts the next batch.
+     */
+    private Callable<Void> inference(Stage stage) {
+        return () -> {
+            List<Item> batch = new ArrayList<>(batchSize);
+            Item pending = null;
+            boolean end = false;
+            while (!end || pending != null) {
+                Item first = pending != null ? pending : stage.input.take();
+                pending = null;
+                if (first == END)
+                    break;
+                batch.add(first);
+
+                while (batch.size() < batchSize) {
+                    Item next = stage.input.poll();
+                    if (next == null)
+                        break;
+                    if (next == END) {
+                        end = true;
+                        break;
+                    }
+                    if (!Arrays.equals(next.imageArray.shape(), first.imageArray.shape())) {
+                        pending = next;
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                stage.process(batch, this::generate);
+                batch.clear();
+            }
+            stage.finish();
+            return null;
+        };
+    }
+
+    private void generate(List<Item> batch) throws InterruptedException {
+        INDArray[] images = new INDArray[batch.size()];
+        INDArray[] masks = new INDArray[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            images[i] = batch.get(i).imageArray;
+            masks[i] = batch.get(i).maskArray;
+        }
+
+        INDArray output = pool.output(Nd4j.concat(0, images), Nd4j.concat(0, masks));
+        for (int i = 0; i < batch.size(); i++)
+            batch.get(i).generated = output.get(NDArrayIndex.interval(i, i + 1), NDArrayIndex.all(),
+                    NDArrayIndex.all(), NDArrayIndex.all());
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static File resolve(File base, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+
+    /**
+     * Image/mask pair and the output file.
+     */
+    @Getter
+    public static class Entry {
+        private final File image;
+        private final File mask;
+        private final File output;
+
+        public Entry(File image, File mask, File output) {
+            this.image = image;
+            this.mask = mask;
+            this.output = output;
+        }
+    }
+
+    private static class Item {
+        private final File image;
+        private final File mask;
+        private final File output;
+
+        private byte[] imageBytes;
+        private byte[] maskBytes;
+        private INDArray imageArray;
+        private INDArray maskArray;
+        private INDArray generated;
+        private INDArray result;
+
+        private Item(File image, File mask, File output) {
+            this.image = image;
+            this.mask = mask;
+            this.output = output;
+        }
+    }
+
+    private interface StageAction {
+        Item apply(Item item) throws Exception;
+    }
+
+    private interface BatchAction {
+        void apply(List<Item> batch) throws Exception;
+    }
+
+    /**
+     * Stage of the job, the last of its threads to finish passes the end marker to the next stage.
+     */
+    public static class Stage {
+        @Getter
+        private final String name;
+        @Getter
+        private final int threads;
+        private final BlockingQueue<Item> input;
+        private final BlockingQueue<Item> output;
+        private final Statistics statistics;
+        private final StageAction action;
+        private final AtomicInteger running;
+
+        private final AtomicLong images = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private Stage(String name, int threads, BlockingQueue<Item> input, BlockingQueue<Item> output,
+                      Statistics statistics, StageAction action) {
+            this.name = name;
+            this.threads = threads;
+            this.input = input;
+            this.output = output;
+            this.statistics = statistics;
+            this.action = action;
+            this.running = new AtomicInteger(threads);
+        }
+
+        private Void run() throws InterruptedException {
+            for (Item item; (item = input.take()) != END; )
+                process(Collections.singletonList(item), batch -> action.apply(batch.get(0)));
+            finish();
+            return null;
+        }
+
+        private void process(List<Item> batch, BatchAction batchAction) throws InterruptedException {
+            long start = System.nanoTime();
+            try {
+                batchAction.apply(batch);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("Stage " + name + " failed for " + batch.size() + " images, first " + batch.get(0).image, e);
+                statistics.failed.addAndGet(batch.size());
+                return;
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+            }
+            images.addAndGet(batch.size());
+            for (Item item : batch)
+                output.put(item);
+        }
+
+        private void finish() throws InterruptedException {
+            //other threads of the stage still wait for the end marker
+            input.put(END);
+            if (running.decrementAndGet() == 0)
+                output.put(END);
+        }
+
+        public long getImages() {
+            return images.get();
+        }
+
+        public double getBusySeconds() {
+            return busyNanos.get() / 1e9;
+        }
+
+        /**
+         * @return images per second of the whole stage, busy time is divided among its threads
+         */
+        public double imagesPerSecond() {
+            return busyNanos.get() == 0 ? 0.0 : images.get() * threads / (busyNanos.get() / 1e9);
+        }
+    }
+
+    public static class Statistics {
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        @Getter
+        private final List<Stage> stages = new ArrayList<>();
+        @Getter
+        private double seconds;
+
+        public long getCompleted() {
+            return completed.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public double imagesPerSecond() {
+            return seconds == 0.0 ? 0.0 : completed.get() / seconds;
+        }
+
+        /**
+         * @return stage with the lowest throughput
+         */
+        public Stage bottleneck() {
+            return stages.stream().filter(stage -> stage.getImages() > 0)
+                    .min(Comparator.comparingDouble(Stage::imagesPerSecond)).orElse(null);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format("%d images in %.2f s (%.2f images/s), %d skipped, %d failed%n",
+                    completed.get(), seconds, imagesPerSecond(), skipped.get(), failed.get()));
+            text.append(String.format("%-10s %8s %8s %12s %12s%n", "stage", "threads", "images", "busy s", "images/s"));
+            for (Stage stage : stages)
+                text.append(String.format("%-10s %8d %8d %12.2f %12.2f%n", stage.getName(), stage.getThreads(),
+                        stage.getImages(), stage.getBusySeconds(), stage.imagesPerSecond()));
+            Stage bottleneck = bottleneck();
+            if (bottleneck != null)
+                text.append("bottleneck: ").append(bottleneck.getName());
+            return text.toString();
+        }
+    }
+
+    /**
+     * Arguments: input directory or manifest file, output directory [gan file] (default gan.zip)
+     * [batch size] (default 8) [replicas] (default GeneratorPool.defaultSize())
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchInpaintingJob <input directory | manifest> <output directory> [gan file] [batch size] [replicas]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        File ganFile = new File(args.length > 2 ? args[2] : "gan.zip");
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE;
+        int replicas = args.length > 4 ? Integer.parseInt(args[4]) : GeneratorPool.defaultSize();
+
+        List<Entry> entries = input.isDirectory() ? listDirectory(input, output) : readManifest(input, output);
+        ComputationGraph generator = new GAN(null, ComputationGraph.load(ganFile, false)).getGenerator();
+        BatchInpaintingJob job = new BatchInpaintingJob(new GeneratorPool(generator, replicas), batchSize,
+                DEFAULT_QUEUE_CAPACITY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+        Statistics statistics = job.run(entries);
+        System.out.println(statistics);
+        System.exit(statistics.getFailed() == 0 ? 0 : 2);
+    }
+}
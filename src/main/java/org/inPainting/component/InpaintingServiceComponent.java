@@ -0,0 +1,135 @@
+package org.inPainting.component;
+
+import lombok.Synchronized;
+import lombok.extern.slf4j.Slf4j;
+import org.inPainting.nn.inference.GeneratorPool;
+import org.inPainting.nn.inference.InferenceBatcher;
+import org.inPainting.nn.inference.InferenceScheduler;
+import org.inPainting.nn.inference.ModelRegistry;
+import org.inPainting.nn.inference.ModelVersion;
+import org.inPainting.nn.serialization.MappedModelSerializer;
+import org.inPainting.utils.ResultCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Generator and micro-batcher of the REST inpainting endpoint, independent of the network trained in the GUI.
+ * Model is loaded on the first request, ".bin" files are loaded by {@link MappedModelSerializer}.
+ * {@link #reload()} replaces it by the current model file without stopping the service, see {@link ModelRegistry}.
+ * Results are cached by {@link ResultCache}, which is invalidated when a model is loaded.
+ *
+ * Properties: inpainting.model, inpainting.replicas (0 sizes the pool from cores), inpainting.batch.max-size, inpainting.batch.max-delay-ms,
+ * inpainting.batch.queue-capacity (per priority), inpainting.batch.bulk-interval, inpainting.request.timeout-ms,
+ * inpainting.cache.memory-bytes, inpainting.cache.directory (empty disables the disk tier), inpainting.cache.disk-bytes
+ */
+@Component
+@Slf4j
+public class InpaintingServiceComponent {
+
+    @Value("${inpainting.model:gan.zip}")
+    private String modelFile;
+
+    @Value("${inpainting.replicas:0}")
+    private int replicas;
+
+    @Value("${inpainting.batch.max-size:" + InferenceBatcher.DEFAULT_MAX_BATCH_SIZE + "}")
+    private int maxBatchSize;
+
+    @Value("${inpainting.batch.max-delay-ms:" + InferenceBatcher.DEFAULT_MAX_DELAY_MILLIS + "}")
+    private long maxDelayMillis;
+
+    @Value("${inpainting.batch.queue-capacity:" + InferenceBatcher.DEFAULT_QUEUE_CAPACITY + "}")
+    private int queueCapacity;
+
+    @Value("${inpainting.batch.bulk-interval:" + InferenceScheduler.DEFAULT_BULK_INTERVAL + "}")
+    private int bulkInterval;
+
+    @Value("${inpainting.request.timeout-ms:30000}")
+    private long requestTimeoutMillis;
+
+    @Value("${inpainting.cache.memory-bytes:67108864}")
+    private long cacheMemoryBytes;
+
+    @Value("${inpainting.cache.directory:}")
+    private String cacheDirectory;
+
+    @Value("${inpainting.cache.disk-bytes:1073741824}")
+    private long cacheDiskBytes;
+
+    private ModelRegistry registry;
+
+    private InferenceBatcher batcher;
+
+    private ResultCache cache;
+
+    @Synchronized
+    public InferenceBatcher getBatcher() throws IOException {
+        if (batcher == null) {
+            File file = new File(modelFile);
+            if (!file.exists())
+                throw new IOException("Model file " + file.getAbsolutePath() + " does not exist");
+
+            ModelRegistry registry = new ModelRegistry(replicas > 0 ? replicas : GeneratorPool.defaultSize());
+            //listeners run on the loader thread, the cache is created before to avoid waiting for this lock
+            ResultCache cache = getCache();
+            registry.addListener(version -> cache.setModelVersion(version.getVersion()));
+            try {
+                registry.load(file).join();
+            } catch (CompletionException e) {
+                registry.close();
+                throw new IOException("Can not load model " + file.getAbsolutePath(), e.getCause());
+            }
+            this.registry = registry;
+            batcher = new InferenceBatcher(registry, maxBatchSize, maxDelayMillis, queueCapacity, bulkInterval);
+            log.info("Inpainting service loaded " + file + ", " + registry.getReplicas() + " replicas, batch size "
+                    + maxBatchSize + ", delay " + maxDelayMillis + " ms");
+        }
+        return batcher;
+    }
+
+    /**
+     * Loads the model file again in the background, requests are served by the previous version until it is warmed up.
+     *
+     * @return version serving requests once it completes
+     */
+    public CompletableFuture<ModelVersion> reload() throws IOException {
+        getBatcher();
+        return registry.load(new File(modelFile));
+    }
+
+    /**
+     * @return descriptions of the current and recently replaced model versions
+     */
+    public List<Map<String, Object>> modelVersions() throws IOException {
+        getBatcher();
+        return registry.versions();
+    }
+
+    @Synchronized
+    public ResultCache getCache() {
+        if (cache == null)
+            cache = new ResultCache(cacheMemoryBytes, cacheDirectory.isEmpty() ? null : new File(cacheDirectory), cacheDiskBytes);
+        return cache;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    @PreDestroy
+    @Synchronized
+    public void stop() {
+        if (batcher != null) {
+            batcher.close();
+            registry.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.inPainting.component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bytedeco.javacpp.Pointer;
+import org.inPainting.nn.TrainingMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link TrainingMetrics} of the GUI training loop to the Spring Boot metrics registry,
+ * readable at /actuator/metrics/{name}:
+ * inpainting.training.phase (timer with percentile histogram, tag "phase"), inpainting.training.step,
+ * inpainting.training.images,
+ * inpainting.training.steps (tag "discriminator": trained or skipped), inpainting.training.images-per-second
+ * (moving average of recent steps) and nd4j.offheap.bytes (off-heap memory allocated by JavaCPP, i.e. ND4J buffers).
+ *
+ * Recording is a few lock-free counter updates per step, negligible next to the step itself.
+ *
+ * Properties: training.metrics.enabled
+ */
+@Component
+public class TrainingMetricsComponent implements TrainingMetrics {
+
+    /**
+     * Weight of the last step in the images per second average.
+     */
+    private static final double ALPHA = 0.05;
+
+    @Value("${training.metrics.enabled:true}")
+    private boolean enabled;
+
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+    private final Timer step;
+    private final Counter images;
+    private final Counter trainedSteps;
+    private final Counter skippedSteps;
+
+    /**
+     * Written only by the training thread.
+     */
+    private volatile double imagesPerSecond;
+
+    public TrainingMetricsComponent(MeterRegistry registry) {
+        for (Phase phase : Phase.values())
+            timers.put(phase, Timer.builder("inpainting.training.phase")
+                    .description("Duration of a training step phase")
+                    .tag("phase", phase.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry));
+        step = Timer.builder("inpainting.training.step")
+                .description("Duration of a whole training step including data loading")
+                .publishPercentileHistogram()
+                .register(registry);
+        images = Counter.builder("inpainting.training.images")
+                .description("Images used for training")
+                .register(registry);
+        trainedSteps = Counter.builder("inpainting.training.steps")
+                .tag("discriminator", "trained")
+                .register(registry);
+        skippedSteps = Counter.builder("inpainting.training.steps")
+                .tag("discriminator", "skipped")
+                .register(registry);
+        Gauge.builder("inpainting.training.images-per-second", this, metrics -> metrics.imagesPerSecond)
+                .register(registry);
+        Gauge.builder("nd4j.offheap.bytes", Pointer::totalBytes)
+                .description("Off-heap memory allocated by JavaCPP")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("nd4j.offheap.max-bytes", Pointer::maxBytes)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * @return this, or {@link TrainingMetrics#NONE} when disabled by training.metrics.enabled
+     */
+    public TrainingMetrics metrics() {
+        return enabled ? this : TrainingMetrics.NONE;
+    }
+
+    @Override
+    public void phase(Phase phase, long nanos) {
+        timers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void step(int images, boolean discriminatorTrained, long nanos) {
+        step.record(nanos, TimeUnit.NANOSECONDS);
+        this.images.increment(images);
+        (discriminatorTrained ? trainedSteps : skippedSteps).increment();
+        if (nanos > 0)
+            imagesPerSecond += ALPHA * (images * 1e9 / nanos - imagesPerSecond);
+    }
+}
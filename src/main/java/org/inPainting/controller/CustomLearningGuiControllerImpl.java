@@ -1,16 +1,40 @@
 package org.inPainting.controller;
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import lombok.Synchronized;
 import lombok.extern.slf4j.Slf4j;
+import org.inPainting.component.TrainingMetricsComponent;
+import org.inPainting.nn.TrainingMetrics;
+import org.inPainting.nn.inference.GeneratorSnapshot;
+import org.inPainting.nn.profiling.LayerProfiler;
+import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.MultiDataSet;
 import org.inPainting.nn.dataSets.ImageDataSetIterator;
 import org.inPainting.nn.GAN;
-import org.inPainting.nn.res.NetResult;
 import org.inPainting.utils.ImageLoader;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Previews are rendered from a {@link GeneratorSnapshot} on a separate low priority thread, the training thread
+ * only refreshes the snapshot and picks the preview sample.
+ *
+ * Properties: preview.interval (automatic preview every n training iterations, 0 disables it),
+ * preview.scale (preview is rendered at 1/scale of the input resolution, the scaled size must stay a multiple
+ * of the generator down sampling factor; 2 by default to keep the preview cost to a quarter of a full forward pass),
+ * profiling.iterations (per layer profile of that many iterations of both graphs by {@link LayerProfiler}, 0 disables it),
+ * profiling.skip (iterations before the profiled ones), profiling.directory (directory of the reports)
+ *
+ * Every training step is timed by {@link TrainingMetrics}, see {@link TrainingMetricsComponent}.
+ */
 @Component
 @Slf4j
 public class CustomLearningGuiControllerImpl implements CustomLearningGuiController {
@@ -21,32 +45,57 @@ public class CustomLearningGuiControllerImpl implements CustomLearningGuiControl
     @FXML
     private ImageView realImageView;
 
+    @Value("${preview.interval:200}")
+    private long previewInterval;
+
+    @Value("${preview.scale:2}")
+    private int previewScale;
+
+    @Value("${profiling.iterations:0}")
+    private int profilingIterations;
+
+    @Value("${profiling.skip:20}")
+    private int profilingSkip;
+
+    @Value("${profiling.directory:profiles}")
+    private String profilingDirectory;
+
     private GAN gan;
 
-    private ImageDataSetIterator trainDataSet;
+    private final TrainingMetrics metrics;
 
-    private final ImageLoader imageLoader = new ImageLoader();
+    private volatile GeneratorSnapshot snapshot;
 
-    private NetResult tempOutput;
+    private ImageDataSetIterator trainDataSet;
 
-    @Override
-    public void onRefreshGUI() {
+    private final ImageLoader imageLoader = new ImageLoader();
 
-        MultiDataSet multiDataSet = trainDataSet.nextRandom();
+    /**
+     * Used only by the preview thread.
+     */
+    private final ImageLoader previewLoader = new ImageLoader();
 
-        int width = 256;
-        int height = 256;
+    private volatile MultiDataSet previewSample;
 
-        tempOutput = gan.getOutput(multiDataSet.getFeatures());
+    private final AtomicBoolean previewPending = new AtomicBoolean();
 
-        //outputImageView.setImage(imageLoader.drawImage(tempOutput.mergeByMask(multiDataSet.getFeatures()[0],multiDataSet.getFeatures()[1], width, height), width, height));
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gui-preview");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
 
-        outputImageView.setImage(imageLoader.drawImage(tempOutput.getOutputPicture(), width, height));
-        realImageView.setImage(imageLoader.drawImage(multiDataSet.getLabels()[0], width, height));
+    private long iteration;
 
-        log.info("Refreshing GUI; Positive Score: " + tempOutput.score());
+    public CustomLearningGuiControllerImpl(TrainingMetricsComponent trainingMetrics) {
+        this.metrics = trainingMetrics.metrics();
+    }
 
-        tempOutput = null;
+    @Override
+    public void onRefreshGUI() {
+        previewSample = trainDataSet.nextRandom();
+        preview(true);
     }
 
     @Synchronized
@@ -76,10 +125,17 @@ public class CustomLearningGuiControllerImpl implements CustomLearningGuiControl
             System.gc();
         }
 
-        if (loopNo % 4 == 0)
-            gan.fit(trainDataSet.next(), t);
-        else
-            gan.fit(trainDataSet.next(), false);
+        long start = System.nanoTime();
+        MultiDataSet next = trainDataSet.next();
+        metrics.phase(TrainingMetrics.Phase.DATA_LOADING, System.nanoTime() - start);
+
+        boolean trainDiscriminator = loopNo % 4 == 0 && t;
+        gan.fit(next, trainDiscriminator);
+        metrics.step((int) next.getFeatures()[0].size(0), trainDiscriminator, System.nanoTime() - start);
+
+        iteration = loopNo;
+        if (previewInterval > 0 && loopNo % previewInterval == 0)
+            preview(false);
     }
 
     @Override
@@ -90,5 +146,57 @@ public class CustomLearningGuiControllerImpl implements CustomLearningGuiControl
     @Override
     public void onSetNeuralNetwork(GAN restoreMultiLayerNetwork) {
         this.gan = restoreMultiLayerNetwork;
+        this.gan.setMetrics(metrics);
+        if (profilingIterations > 0) {
+            File directory = new File(profilingDirectory);
+            gan.getNetwork().addListeners(new LayerProfiler("network", profilingSkip, profilingIterations, directory));
+            gan.getDiscriminator().addListeners(new LayerProfiler("discriminator", profilingSkip, profilingIterations, directory));
+        }
+        this.snapshot = new GeneratorSnapshot(restoreMultiLayerNetwork.getGenerator(),
+                GAN._InputShape[0][2], GAN._InputShape[0][3], previewScale);
+    }
+
+    /**
+     * Refreshes the snapshot and renders it on the preview thread, called from the training thread.
+     * Skipped while the previous preview is rendered, unless requested by the user.
+     */
+    private void preview(boolean requested) {
+        GeneratorSnapshot current = snapshot;
+        if (current == null || trainDataSet == null)
+            return;
+        if (previewSample == null)
+            previewSample = trainDataSet.nextRandom();
+        if (!previewPending.compareAndSet(false, true) && !requested)
+            return;
+
+        current.tryRefresh(iteration);
+        MultiDataSet sample = previewSample;
+        previewExecutor.submit(() -> {
+            try {
+                render(current, sample);
+            } catch (RuntimeException e) {
+                log.error("Preview failed", e);
+            } finally {
+                previewPending.set(false);
+            }
+        });
+    }
+
+    private void render(GeneratorSnapshot current, MultiDataSet sample) {
+        long start = System.nanoTime();
+        INDArray output = current.output(sample.getFeatures()[0], sample.getFeatures()[1]);
+        INDArray expected = current.downscale(sample.getLabels()[0]);
+        int width = (int) output.size(3);
+        int height = (int) output.size(2);
+
+        WritableImage outputImage = previewLoader.drawImage(output, width, height);
+        WritableImage realImage = previewLoader.drawImage(expected, width, height);
+        Platform.runLater(() -> {
+            outputImageView.setImage(outputImage);
+            realImageView.setImage(realImage);
+        });
+
+        log.info("Refreshing GUI; preview of iteration " + current.getIteration() + " rendered in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package org.inPainting.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.inPainting.component.InpaintingServiceComponent;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.inference.InferenceScheduler;
+import org.inPainting.nn.inference.InpaintingResult;
+import org.inPainting.utils.ImageLoader;
+import org.inPainting.utils.ResultCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HTTP inpainting endpoint, requests are batched by {@link org.inPainting.nn.inference.InferenceBatcher}.
+ *
+ * POST /inpaint, multipart "image" and "mask" files of the generator input size, optional "priority"
+ * (interactive or bulk, default interactive), responds with the inpainted PNG.
+ * Repeated requests are answered from {@link ResultCache}. Requests which can not complete
+ * within the request timeout are shed by {@link InferenceScheduler} with 503.
+ *
+ * Responses carry the version of the model which produced them in the X-Model-Version header.
+ *
+ * GET /inpaint/cache, result cache statistics.
+ * GET /inpaint/models, current and recently replaced model versions.
+ * POST /inpaint/models/reload, loads the configured model file again and swaps it in once warmed up.
+ * GET /inpaint/scheduler, queue depth, wait times and shed requests of every priority.
+ */
+@RestController
+@Slf4j
+public class InpaintingRestController {
+
+    public static final String MODEL_VERSION_HEADER = "X-Model-Version";
+
+    @Autowired
+    private InpaintingServiceComponent inpaintingService;
+
+    @PostMapping(value = "/inpaint", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> inpaint(@RequestParam("image") MultipartFile image, @RequestParam("mask") MultipartFile mask,
+                          @RequestParam(value = "priority", defaultValue = "interactive") String priority) throws IOException {
+        InferenceScheduler.Priority priorityClass;
+        try {
+            priorityClass = InferenceScheduler.Priority.valueOf(priority.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown priority " + priority);
+        }
+
+        byte[] imageBytes = image.getBytes();
+        byte[] maskBytes = mask.getBytes();
+
+        //loading the model first, cache keys contain its version
+        inpaintingService.getBatcher();
+        ResultCache cache = inpaintingService.getCache();
+        String key = cache.key(imageBytes, maskBytes);
+        byte[] cached = cache.get(key);
+        if (cached != null)
+            return png(cached, ResultCache.version(key));
+
+        INDArray imageArray;
+        INDArray maskArray;
+        try {
+            imageArray = ImageLoader.readImage(new ByteArrayInputStream(imageBytes));
+            maskArray = ImageLoader.readMask(new ByteArrayInputStream(maskBytes));
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        if (imageArray.size(2) != GAN._InputShape[0][2] || imageArray.size(3) != GAN._InputShape[0][3]
+                || maskArray.size(2) != imageArray.size(2) || maskArray.size(3) != imageArray.size(3))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Image and mask must be "
+                    + GAN._InputShape[0][3] + "x" + GAN._InputShape[0][2]);
+
+        InpaintingResult result;
+        try {
+            long timeout = inpaintingService.getRequestTimeoutMillis();
+            result = inpaintingService.getBatcher().submit(imageArray, maskArray, priorityClass, timeout)
+                    .get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Inpainting timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException)
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getCause().getMessage());
+            log.error("Inpainting failed", e.getCause());
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Inpainting failed");
+        }
+
+        byte[] png = ImageLoader.toPng(result.getImage());
+        cache.put(cache.key(imageBytes, maskBytes, result.getModelVersion()), png);
+        return png(png, result.getModelVersion());
+    }
+
+    @GetMapping("/inpaint/models")
+    public List<Map<String, Object>> models() throws IOException {
+        return inpaintingService.modelVersions();
+    }
+
+    @PostMapping("/inpaint/models/reload")
+    public Map<String, Object> reload() throws IOException {
+        try {
+            return inpaintingService.reload().join().describe();
+        } catch (CompletionException e) {
+            log.error("Model reload failed", e.getCause());
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Model reload failed: " + e.getCause().getMessage());
+        }
+    }
+
+    @GetMapping("/inpaint/scheduler")
+    public Map<String, Object> schedulerStatistics() throws IOException {
+        return inpaintingService.getBatcher().statistics();
+    }
+
+    private static ResponseEntity<byte[]> png(byte[] png, String modelVersion) {
+        return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).header(MODEL_VERSION_HEADER, modelVersion).body(png);
+    }
+
+    @GetMapping("/inpaint/cache")
+    public Map<String, Object> cacheStatistics() {
+        return inpaintingService.getCache().statistics();
+    }
+}
@@ -16,8 +16,12 @@ import org.deeplearning4j.util.ModelSerializer;
 import org.inPainting.component.UIServerComponent;
 import org.inPainting.nn.GAN;
 import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.descriptor.NetworkDescriptor;
+import org.inPainting.nn.descriptor.NetworkDescriptorLoader;
+import org.inPainting.nn.serialization.MappedModelSerializer;
 import org.nd4j.linalg.learning.config.Adam;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -60,14 +64,26 @@ public class LearningGuiController {
 
     private final File gan_file = new File("gan.zip");
     private final File disc_file = new File("discriminator.zip");
+    private final File network_file = new File("network.yml");
+    private final File gan_mapped_file = new File("gan.bin");
+    private final File disc_mapped_file = new File("discriminator.bin");
 
-    private GAN gan;
+    /**
+     * Format written by Save, "zip" or "mapped", load takes the newer of both.
+     */
+    @Value("${model.save-format:zip}")
+    private String saveFormat;
+
+    /**
+     * Replaced as a whole when networks are loaded, never modified while they are being loaded.
+     */
+    private volatile GAN gan;
 
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     @FXML
     private void initialize() {
-        tryToLoadNetworks();
+        gan = tryToLoadNetworks();
 
         log.info("Discriminator");
         log.info(gan.getDiscriminator().summary());
@@ -75,11 +91,12 @@ public class LearningGuiController {
         log.info("GAN");
         log.info(gan.getNetwork().summary());
 
+        //set before onSetNeuralNetwork, which adds its own listeners
+        gan.setDiscriminatorListeners(new PerformanceListener(100, true));
         customLearningGuiController.onSetNeuralNetwork(gan);
         customLearningGuiController.onInitialize();
 
         uiServerComponent.reinitialize(gan.getNetwork());
-        gan.setDiscriminatorListeners(new PerformanceListener(100, true));
         //gan.setGanListeners(new BaseTrainingListener[]{new ScoreIterationListener(1000)});
 
         counterProperty.addListener((observable, oldValue, newValue) -> {
@@ -94,12 +111,14 @@ public class LearningGuiController {
             @Override
             protected Void call() {
                 btnLoad.setDisable(true);
-                tryToLoadNetworks();
+                //networks are loaded aside, the current ones stay usable until they are replaced
+                GAN loaded = tryToLoadNetworks();
+                gan = loaded;
 
-                customLearningGuiController.onSetNeuralNetwork(gan);
+                customLearningGuiController.onSetNeuralNetwork(loaded);
                 customLearningGuiController.onInitialize();
 
-                uiServerComponent.reinitialize(gan.getNetwork());
+                uiServerComponent.reinitialize(loaded.getNetwork());
                 return null;
             }
         };
@@ -112,22 +131,38 @@ public class LearningGuiController {
     }
 
     @SneakyThrows
-    private void tryToLoadNetworks(){
-        if (gan_file.exists() && disc_file.exists()){
-            gan =  new GAN(ComputationGraph.load(disc_file, true), ComputationGraph.load(gan_file, true));
-        } else
-            gan = new GAN.Builder().discriminator(() -> {
+    private GAN tryToLoadNetworks(){
+        if (isNewer(gan_mapped_file, gan_file) && isNewer(disc_mapped_file, disc_file)) {
+            log.info("Loading mapped networks");
+            return new GAN(MappedModelSerializer.restoreComputationGraph(disc_mapped_file, true),
+                    MappedModelSerializer.restoreComputationGraph(gan_mapped_file, true));
+        } else if (gan_file.exists() && disc_file.exists()){
+            return new GAN(ComputationGraph.load(disc_file, true), ComputationGraph.load(gan_file, true));
+        } else {
+            NetworkDescriptor descriptor = network_file.exists()
+                    ? NetworkDescriptorLoader.load(network_file)
+                    : NetworkDescriptor.defaults();
+
+            return new GAN.Builder().descriptor(descriptor).discriminator(() -> {
                 try {
                     log.info("Loading Discriminator");
                     return ComputationGraph.load(disc_file, true);
                 } catch (IOException e) {
                     log.error("Error while loading discriminator network creating new one");
-                    return NeuralNetwork.getDiscriminator();
+                    return NeuralNetwork.getDiscriminator(descriptor);
                 }
             }).updater(Adam.builder()
                     .learningRate(GAN.LEARNING_RATE)
                     .beta1(GAN.LEARNING_BETA1).build())
                     .build();
+        }
+    }
+
+    /**
+     * @return true if the mapped file exists and is not older than the zip, zips may be replaced by hand
+     */
+    private static boolean isNewer(File mapped, File zip) {
+        return mapped.exists() && (!zip.exists() || mapped.lastModified() >= zip.lastModified());
     }
 
     @SneakyThrows
@@ -137,8 +172,13 @@ public class LearningGuiController {
             @Override
             protected Void call() {
                 btnSave.setDisable(true);
-                ModelSerializer.writeModel(gan.getNetwork(), gan_file, true);
-                ModelSerializer.writeModel(gan.getDiscriminator(), disc_file,true);
+                if ("mapped".equals(saveFormat)) {
+                    MappedModelSerializer.writeModel(gan.getNetwork(), gan_mapped_file, true);
+                    MappedModelSerializer.writeModel(gan.getDiscriminator(), disc_mapped_file, true);
+                } else {
+                    ModelSerializer.writeModel(gan.getNetwork(), gan_file, true);
+                    ModelSerializer.writeModel(gan.getDiscriminator(), disc_file,true);
+                }
                 return null;
             }
         };
@@ -1,6 +1,8 @@
 package org.inPainting.nn;
 
 import lombok.Getter;
+import lombok.Setter;
+import lombok.Synchronized;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
 import org.deeplearning4j.nn.conf.*;
 import org.deeplearning4j.nn.conf.inputs.InputType;
@@ -12,13 +14,21 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.config.IUpdater;
 import org.nd4j.linalg.learning.config.Sgd;
+import org.inPainting.nn.descriptor.NetworkDescriptor;
+import org.inPainting.nn.descriptor.NetworkDescriptorLoader;
 import org.inPainting.nn.entry.LEntry;
 import org.inPainting.nn.entry.LayerEntry;
 import org.inPainting.nn.entry.VertexEntry;
+import org.inPainting.nn.inference.CroppedInference;
+import org.inPainting.nn.inference.InpaintingSession;
+import org.inPainting.nn.inference.PyramidInference;
+import org.inPainting.nn.inference.TiledInference;
 import org.inPainting.nn.res.NetResult;
 
+import java.util.*;
 import java.util.function.Supplier;
 
 public class GAN {
@@ -33,12 +43,15 @@ public class GAN {
 
     protected Supplier<ComputationGraph> generatorSupplier;
     protected Supplier<ComputationGraph> discriminatorSupplier;
+    protected NetworkDescriptor descriptor = NetworkDescriptor.defaults();
 
     @Getter
     protected ComputationGraph discriminator;
     @Getter
     protected ComputationGraph network;
 
+    protected ComputationGraph generator;
+
     protected IUpdater updater = new Sgd(LEARNING_RATE);
     protected IUpdater biasUpdater;
     protected OptimizationAlgorithm optimizer;
@@ -49,10 +62,19 @@ public class GAN {
     protected CacheMode cacheMode;
     protected long seed;
 
+    /**
+     * Receives durations of the training phases, {@link TrainingMetrics#NONE} by default.
+     */
+    @Setter
+    protected TrainingMetrics metrics = TrainingMetrics.NONE;
+
 
     public GAN(Builder builder) {
         this.generatorSupplier = builder.generator;
-        this.discriminatorSupplier = builder.discriminator;
+        this.descriptor = builder.descriptor;
+        this.discriminatorSupplier = builder.discriminator != null
+                ? builder.discriminator
+                : () -> NeuralNetwork.getDiscriminator(descriptor);
         this.updater = builder.iUpdater;
         this.biasUpdater = builder.biasUpdater;
         this.optimizer = builder.optimizationAlgo;
@@ -75,6 +97,89 @@ public class GAN {
         return new NetResult(network.output(Picture));
     }
 
+    /**
+     * Runs only the generator part of the Gan network, the discriminator is not evaluated.
+     *
+     * @param Picture input image and mask
+     * @return generated image
+     */
+    public INDArray getGeneratorOutput(INDArray[] Picture) {
+        return getGenerator().outputSingle(Picture);
+    }
+
+    /**
+     * Runs the generator only on crops around holes of the mask.
+     *
+     * @param Picture input image and mask
+     * @param margin context in pixels around every hole
+     * @return input image with holes filled by the generator
+     * @see CroppedInference
+     */
+    public INDArray getCroppedOutput(INDArray[] Picture, int margin) {
+        return new CroppedInference(getGenerator(), margin).inpaint(Picture[0], Picture[1]);
+    }
+
+    /**
+     * Inpaints image of any size by overlapping generator sized tiles.
+     *
+     * @param Picture input image [1, 3, h, w] and mask [1, 1, h, w]
+     * @return input image with holes filled by the generator
+     * @see TiledInference
+     */
+    public INDArray getTiledOutput(INDArray[] Picture) {
+        return new TiledInference(getGenerator()).inpaint(Picture[0], Picture[1]);
+    }
+
+    /**
+     * Coarse to fine inpainting of high resolution image, holes are inpainted at the generator resolution first
+     * and refined on full resolution tiles intersecting the holes.
+     *
+     * @param Picture input image [1, 3, h, w] and mask [1, 1, h, w]
+     * @return input image with holes filled by the generator
+     * @see PyramidInference
+     */
+    public INDArray getPyramidOutput(INDArray[] Picture) {
+        return new PyramidInference(getGenerator()).inpaint(Picture[0], Picture[1]);
+    }
+
+    /**
+     * Starts incremental inpainting of the image, later changes of the mask or image evaluate only affected tiles.
+     *
+     * @param Picture input image [1, 3, h, w] and mask [1, 1, h, w]
+     * @return session with the inpainted image
+     * @see InpaintingSession
+     */
+    public InpaintingSession openSession(INDArray[] Picture) {
+        return new InpaintingSession(getGenerator(), Picture[0], Picture[1]);
+    }
+
+    /**
+     * Optional second step after {@link #getGeneratorOutput(INDArray[])},
+     * scores generated image with the discriminator.
+     *
+     * Returns only the score, a NetResult would close the caller's generated image when it is finalized.
+     *
+     * @param generated output of the generator
+     * @param Picture input image and mask used to generate the output
+     * @return discriminator output (patch scores) of the generated image
+     */
+    public INDArray scoreGeneratorOutput(INDArray generated, INDArray[] Picture) {
+        return discriminator.outputSingle(generated, Picture[0], Picture[1]);
+    }
+
+    /**
+     * Generator only ComputationGraph, built from genLayers() and sharing parameters with the Gan network.
+     * Changes of the Gan network weights (fit, load) are visible to the generator without copying.
+     *
+     * @return generator network
+     */
+    @Synchronized
+    public ComputationGraph getGenerator() {
+        if (generator == null)
+            generator = extractGenerator();
+        return generator;
+    }
+
     public Evaluation evaluateGan(MultiDataSetIterator data) {
         return network.evaluate(data);
     }
@@ -101,66 +206,101 @@ public class GAN {
      * @param trainDiscriminator determine should Discriminator be train
      */
     public void fit(MultiDataSet next, boolean trainDiscriminator) {
-        if (trainDiscriminator) {
-            INDArray[] ganOutput = network.output(next.getFeatures());
-
-            // Treating input as Fake
-            MultiDataSet inputSet = new MultiDataSet(
-                    new INDArray[] {
-                            next.getFeatures()[0], //input
-                            next.getFeatures()[0], //input
-                            next.getFeatures()[1] //mask
-                    }, new INDArray[] {
-                    Outputs.FAKE //zeros
-            });
-
-            // Fake images are marked as "0".
-            MultiDataSet fakeSetOutput = new MultiDataSet(
-                    new INDArray[]{
-                            ganOutput[1], //gan output
-                            next.getFeatures()[0], //input
-                            next.getFeatures()[1] //mask
-                    },new INDArray[] {
-                    Outputs.FAKE //zeros
-            });
-
-            // Real images are marked as "1"
-            MultiDataSet realSet = new MultiDataSet(
-                    new INDArray[]{
-                            next.getLabels()[0], //expected output
-                            next.getFeatures()[0], //input
-                            next.getFeatures()[1] //mask
-                    },new INDArray[] {
-                    Outputs.REAL //ones
-            });
-
-            discriminator.fit(inputSet);
-
-            //for (int i = 0; i < 2; i++)
-            discriminator.fit(realSet);
-
-            discriminator.fit(fakeSetOutput);
-
-            //this may look silly but, without it GC having bad time ...
-            for (INDArray indArray: ganOutput)
-                indArray = null;
-            ganOutput = null;
-
-
-            // Update the discriminator in the GAN network
-            updateGanWithDiscriminator();
-        }
+        if (trainDiscriminator)
+            fitDiscriminator(next);
+
+        fitGenerator(next.getFeatures(), next.getLabels()[0]);
+    }
+
+    /**
+     * Discriminator is being train on given data, as well as fake outputs from the gan network,
+     * its weights are copied to the Gan network afterwards.
+     *
+     * @param next MultiDataSet to feed the discriminator, expected output is treated as real image
+     */
+    public void fitDiscriminator(MultiDataSet next) {
+        long start = System.nanoTime();
+        INDArray[] ganOutput = network.output(next.getFeatures());
+        start = phase(TrainingMetrics.Phase.GENERATOR_OUTPUT, start);
+
+        // Treating input as Fake
+        MultiDataSet inputSet = new MultiDataSet(
+                new INDArray[] {
+                        next.getFeatures()[0], //input
+                        next.getFeatures()[0], //input
+                        next.getFeatures()[1] //mask
+                }, new INDArray[] {
+                Outputs.FAKE //zeros
+        });
+
+        // Fake images are marked as "0".
+        MultiDataSet fakeSetOutput = new MultiDataSet(
+                new INDArray[]{
+                        ganOutput[1], //gan output
+                        next.getFeatures()[0], //input
+                        next.getFeatures()[1] //mask
+                },new INDArray[] {
+                Outputs.FAKE //zeros
+        });
+
+        // Real images are marked as "1"
+        MultiDataSet realSet = new MultiDataSet(
+                new INDArray[]{
+                        next.getLabels()[0], //expected output
+                        next.getFeatures()[0], //input
+                        next.getFeatures()[1] //mask
+                },new INDArray[] {
+                Outputs.REAL //ones
+        });
+
+        discriminator.fit(inputSet);
+        start = phase(TrainingMetrics.Phase.DISCRIMINATOR_FIT_INPUT, start);
+
+        //for (int i = 0; i < 2; i++)
+        discriminator.fit(realSet);
+        start = phase(TrainingMetrics.Phase.DISCRIMINATOR_FIT_REAL, start);
+
+        discriminator.fit(fakeSetOutput);
+        start = phase(TrainingMetrics.Phase.DISCRIMINATOR_FIT_FAKE, start);
+
+        //this may look silly but, without it GC having bad time ...
+        for (INDArray indArray: ganOutput)
+            indArray = null;
+        ganOutput = null;
+
+
+        // Update the discriminator in the GAN network
+        updateGanWithDiscriminator();
+        phase(TrainingMetrics.Phase.UPDATE_GAN_WITH_DISCRIMINATOR, start);
+    }
 
-        // Fit the GAN on the adversarial set, trying to fool the discriminator by generating
-        // better fake images.
+    /**
+     * @return end of the phase, start of the next one
+     */
+    private long phase(TrainingMetrics.Phase phase, long start) {
+        long end = System.nanoTime();
+        metrics.phase(phase, end - start);
+        return end;
+    }
+
+    /**
+     * Fit the GAN on the adversarial set, trying to fool the discriminator by generating
+     * better fake images.
+     *
+     * @param features image and mask
+     * @param target image the generator output is compared with (L1), e.g. expected output or teacher output
+     */
+    public void fitGenerator(INDArray[] features, INDArray target) {
+        long start = System.nanoTime();
         network.fit(new MultiDataSet(
-                next.getFeatures(), // Image And Mask
+                features, // Image And Mask
 
                 new INDArray[] {
                         Outputs.REAL,
-                        next.getLabels()[0] //expected output
+                        target
                 })
         );
+        phase(TrainingMetrics.Phase.GENERATOR_FIT, start);
     }
 
     /**
@@ -185,10 +325,38 @@ public class GAN {
      * @return build ComputationGraph for the Gan network
      */
     private ComputationGraph NET(IUpdater updater) {
+        ComputationGraphConfiguration.GraphBuilder graphBuilder = graphBuilder(updater);
+
+        //Generator layers
+        addEntries(graphBuilder, descriptor.generatorLayers());
+
+        //Discriminator layers, discriminator inputs are replaced by Gan vertices given by descriptor wiring
+        //(generator output, "Input", "Mask")
+        for (LEntry lEntry : descriptor.discriminatorLayers()) {
+            String[] inputs = Arrays.stream(lEntry.getInputs())
+                    .map(input -> descriptor.getWiring().getOrDefault(input, input))
+                    .toArray(String[]::new);
+
+            if (lEntry.isVertex())
+                graphBuilder.addVertex(lEntry.getLayerName(), ((VertexEntry) lEntry).getVertex(), inputs);
+            else
+                graphBuilder.addLayer(lEntry.getLayerName(), ((LayerEntry) lEntry).getLayer(), inputs);
+        }
+
+        graphBuilder.setOutputs(NetworkDescriptor.DISCRIMINATOR_LOSS, NetworkDescriptor.GENERATOR_LOSS); //Discriminator output, Generator loss
+
+        return new ComputationGraph(graphBuilder.build());
+    }
+
+    /**
+     * @param updater Gan's updater
+     * @return GraphBuilder with Gan's configuration and inputs
+     */
+    private ComputationGraphConfiguration.GraphBuilder graphBuilder(IUpdater updater) {
         InputType rgbImage = InputType.convolutional(256, 256, 3);
         InputType mask = InputType.convolutional(256, 256, 1);
 
-        ComputationGraphConfiguration.GraphBuilder graphBuilder = new NeuralNetConfiguration.Builder()
+        return new NeuralNetConfiguration.Builder()
                 .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
                 .weightInit(WeightInit.RELU)
                 .updater(updater)
@@ -198,10 +366,10 @@ public class GAN {
                 .addInputs("Input", "Mask")
                 //rgb 256x256x3x1 + m 256x256x1x1
                 .setInputTypes(rgbImage, mask);
+    }
 
-        //Generator layers
-        LEntry[] GenlEntry = NeuralNetwork.genLayers();
-        for (LEntry lEntry : GenlEntry) {
+    private static void addEntries(ComputationGraphConfiguration.GraphBuilder graphBuilder, LEntry[] entries) {
+        for (LEntry lEntry : entries) {
             if (lEntry.isVertex())
                 graphBuilder.addVertex(
                         lEntry.getLayerName(),
@@ -215,27 +383,47 @@ public class GAN {
                         lEntry.getInputs()
                 );
         }
+    }
 
-        //Discriminator layers
-        LEntry[] DislEntry = NeuralNetwork.discriminatorLayers();
-
-        //Changing first inputs of first Vertex of discriminator
-        graphBuilder.addVertex(
-                DislEntry[0].getLayerName(),
-                ((VertexEntry)DislEntry[0]).getVertex(),
-                GenlEntry[GenlEntry.length - 2].getLayerName(), "Input", "Mask");
+    /**
+     * Generator configuration is taken from the Gan network configuration, keeping only vertices
+     * needed to compute "GENCNNLoss" output.
+     *
+     * Generator layers are placed first in the Gan's flattened parameters,
+     * so the generator is initialized on a view of that part of parameters instead of a copy
+     * and follows the Gan network while it is trained.
+     *
+     * @return generator ComputationGraph
+     * @throws IllegalStateException if parameters of some generator layer are not at the same position
+     * as in the Gan network (e.g. generator vertices are not placed first), a copy would stop following the Gan
+     */
+    private ComputationGraph extractGenerator() {
+        ComputationGraphConfiguration conf = network.getConfiguration().clone();
+
+        Set<String> required = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>(Collections.singleton(NetworkDescriptor.GENERATOR_LOSS));
+        while (!toVisit.isEmpty()) {
+            String name = toVisit.pop();
+            if (required.add(name) && conf.getVertexInputs().containsKey(name))
+                toVisit.addAll(conf.getVertexInputs().get(name));
+        }
+        conf.getVertices().keySet().retainAll(required);
+        conf.getVertexInputs().keySet().retainAll(required);
+        conf.setNetworkOutputs(new ArrayList<>(Collections.singleton(NetworkDescriptor.GENERATOR_LOSS)));
 
-        //Coping Discriminator layers to Gan's graphBuilder
-        for (int i = 1; i < DislEntry.length; i++)
-            graphBuilder.addLayer(
-                    DislEntry[i].getLayerName(),
-                    ((LayerEntry) DislEntry[i]).getLayer(),
-                    DislEntry[i].getInputs()
-            );
+        ComputationGraph gen = new ComputationGraph(conf);
+        long genParams = conf.getVertices().values().stream()
+                .mapToLong(vertex -> vertex.numParams(true)).sum();
 
-        graphBuilder.setOutputs("DISLoss","GENCNNLoss"); //Discriminator output, Generator loss
+        gen.init(network.params().get(NDArrayIndex.interval(0, 0, true), NDArrayIndex.interval(0, genParams)), false);
 
-        return new ComputationGraph(graphBuilder.build());
+        for (org.deeplearning4j.nn.api.Layer layer : gen.getLayers()) {
+            org.deeplearning4j.nn.api.Layer shared = network.getLayer(layer.conf().getLayer().getLayerName());
+            if (layer.numParams() > 0 && shared.params().offset() != layer.params().offset())
+                throw new IllegalStateException("Generator layer " + layer.conf().getLayer().getLayerName()
+                        + " is not aligned with Gan network parameters");
+        }
+        return gen;
     }
 
     /**
@@ -257,6 +445,7 @@ public class GAN {
     public static class Builder implements Cloneable {
         protected Supplier<ComputationGraph> generator;
         protected Supplier<ComputationGraph> discriminator;
+        protected NetworkDescriptor descriptor = NetworkDescriptor.defaults();
 
         protected IUpdater iUpdater = new Sgd();
         protected IUpdater biasUpdater = null;
@@ -283,6 +472,30 @@ public class GAN {
             return this;
         }
 
+        /**
+         * Set the generator layers of the GAN, by default {@link NeuralNetwork#genLayers()}.
+         * Generator must end with "GENCNNLoss" layer, its input is connected to the discriminator.
+         *
+         * @param generatorLayers layers of the generator, e.g. from {@link GeneratorBuilder}
+         * @return Builder
+         */
+        public GAN.Builder generatorLayers(Supplier<LEntry[]> generatorLayers) {
+            this.descriptor = descriptor.withGenerator(generatorLayers);
+            return this;
+        }
+
+        /**
+         * Set the generator and discriminator topology, e.g. loaded by {@link NetworkDescriptorLoader}.
+         * If discriminator supplier is not set, discriminator is built from the descriptor.
+         *
+         * @param descriptor networks descriptor
+         * @return Builder
+         */
+        public GAN.Builder descriptor(NetworkDescriptor descriptor) {
+            this.descriptor = descriptor;
+            return this;
+        }
+
         /**
          * Random number generator seed. Used for reproducibility between runs
          */
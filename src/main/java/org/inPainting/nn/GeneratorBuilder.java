@@ -0,0 +1,157 @@
+package org.inPainting.nn;
+
+import lombok.Getter;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.layers.*;
+import org.inPainting.nn.entry.LEntry;
+import org.inPainting.nn.entry.LayerEntry;
+import org.inPainting.nn.entry.VertexEntry;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder of U-net generator layers, with default values it creates the same layers as
+ * {@link NeuralNetwork#genLayers()}.
+ *
+ * Layers are named the same way as in genLayers(), for depth d:
+ * encoder levels 1..d (convX-1, convX-2, poolX), bottleneck level d+1,
+ * decoder levels d+2..2d+1 (upX-1, upX-2, mergeX, convX-1, convX-2),
+ * followed by conv(2d+1)-3, conv(2d+2) and GENCNNLoss, so the result can be used by {@link GAN}.
+ */
+public class GeneratorBuilder {
+
+    public static final int BASE_WIDTH = 64;
+    public static final int DEFAULT_DEPTH = 4;
+
+    @Getter
+    protected double widthMultiplier = 1.0;
+    @Getter
+    protected int depth = DEFAULT_DEPTH;
+    @Getter
+    protected boolean separable = false;
+    protected ConvolutionLayer.AlgoMode cudnnAlgoMode = ConvolutionLayer.AlgoMode.PREFER_FASTEST;
+
+    public GeneratorBuilder() {
+    }
+
+    /**
+     * Multiplier of channels of every level, first level has BASE_WIDTH * widthMultiplier channels
+     * and every next level doubles it.
+     */
+    public GeneratorBuilder widthMultiplier(double widthMultiplier) {
+        if (widthMultiplier <= 0)
+            throw new IllegalArgumentException("Width multiplier must be positive, got " + widthMultiplier);
+        this.widthMultiplier = widthMultiplier;
+        return this;
+    }
+
+    /**
+     * Number of down sampling (and up sampling) levels, input size must be divisible by 2^depth.
+     */
+    public GeneratorBuilder depth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Depth must be at least 1, got " + depth);
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Use depthwise-separable convolutions instead of the full 3x3 convolutions.
+     */
+    public GeneratorBuilder separable(boolean separable) {
+        this.separable = separable;
+        return this;
+    }
+
+    public GeneratorBuilder cudnnAlgoMode(ConvolutionLayer.AlgoMode cudnnAlgoMode) {
+        this.cudnnAlgoMode = cudnnAlgoMode;
+        return this;
+    }
+
+    /**
+     * @param level level of the U-net, starting from 1
+     * @return number of channels of the level
+     */
+    public int width(int level) {
+        return Math.max(1, (int) Math.round(BASE_WIDTH * widthMultiplier * (1L << (level - 1))));
+    }
+
+    /**
+     * @return layers of the U-net generator
+     */
+    public LEntry[] build() {
+        List<LEntry> entries = new ArrayList<>();
+        int bottleneck = depth + 1;
+
+        entries.add(new VertexEntry("merge1", new MergeVertex(), "Input", "Mask"));
+
+        String previous = "merge1";
+        for (int level = 1; level <= depth; level++) {
+            previous = addConvBlock(entries, level, previous);
+
+            //dropout on the deepest encoder level, as in genLayers() drop4
+            if (level == depth) {
+                entries.add(new LayerEntry("drop" + level, new DropoutLayer.Builder(0.5).build(), previous));
+                previous = "drop" + level;
+            }
+
+            entries.add(new LayerEntry("pool" + level, new SubsamplingLayer.Builder(SubsamplingLayer.PoolingType.MAX)
+                    .kernelSize(2,2).build(), previous));
+            previous = "pool" + level;
+        }
+
+        previous = addConvBlock(entries, bottleneck, previous);
+        entries.add(new LayerEntry("drop" + bottleneck, new DropoutLayer.Builder(0.5).build(), previous));
+        previous = "drop" + bottleneck;
+
+        for (int level = bottleneck + 1; level <= 2 * depth + 1; level++) {
+            int encoderLevel = 2 * bottleneck - level;
+            String skip = encoderLevel == depth ? "drop" + depth : "conv" + encoderLevel + "-2";
+
+            entries.add(new LayerEntry("up" + level + "-1", new Upsampling2D.Builder(2).build(), previous));
+            entries.add(new LayerEntry("up" + level + "-2", new ConvolutionLayer.Builder(2,2).stride(1,1)
+                    .nOut(width(encoderLevel))
+                    .convolutionMode(ConvolutionMode.Same).cudnnAlgoMode(cudnnAlgoMode)
+                    .activation(Activation.RELU).build(), "up" + level + "-1"));
+            entries.add(new VertexEntry("merge" + level, new MergeVertex(), skip, "up" + level + "-2"));
+
+            previous = addConvBlock(entries, level, "merge" + level, encoderLevel);
+        }
+
+        int last = 2 * depth + 1;
+        entries.add(new LayerEntry("conv" + last + "-3", conv3x3(width(1)), previous));
+
+        entries.add(new LayerEntry("conv" + (last + 1), new ConvolutionLayer.Builder(1,1).stride(1,1).nOut(3)
+                .convolutionMode(ConvolutionMode.Same).cudnnAlgoMode(cudnnAlgoMode)
+                .activation(Activation.IDENTITY).build(), "conv" + last + "-3"));
+        entries.add(new LayerEntry("GENCNNLoss", new CnnLossLayer.Builder(LossFunctions.LossFunction.MEAN_ABSOLUTE_ERROR)
+                .activation(Activation.SIGMOID).build(), "conv" + (last + 1)));
+
+        return entries.toArray(new LEntry[0]);
+    }
+
+    private String addConvBlock(List<LEntry> entries, int level, String input) {
+        return addConvBlock(entries, level, input, level);
+    }
+
+    private String addConvBlock(List<LEntry> entries, int level, String input, int widthLevel) {
+        entries.add(new LayerEntry("conv" + level + "-1", conv3x3(width(widthLevel)), input));
+        entries.add(new LayerEntry("conv" + level + "-2", conv3x3(width(widthLevel)), "conv" + level + "-1"));
+        return "conv" + level + "-2";
+    }
+
+    private Layer conv3x3(int nOut) {
+        if (separable)
+            return new SeparableConvolution2D.Builder(3,3).stride(1,1).nOut(nOut).depthMultiplier(1)
+                    .convolutionMode(ConvolutionMode.Same).cudnnAlgoMode(cudnnAlgoMode)
+                    .activation(Activation.RELU).build();
+
+        return new ConvolutionLayer.Builder(3,3).stride(1,1).nOut(nOut)
+                .convolutionMode(ConvolutionMode.Same).cudnnAlgoMode(cudnnAlgoMode)
+                .activation(Activation.RELU).build();
+    }
+}
@@ -0,0 +1,51 @@
+package org.inPainting.nn;
+
+/**
+ * Receives durations of the phases of a training step, see {@link GAN#fit(org.nd4j.linalg.dataset.MultiDataSet, boolean)}.
+ * Implementations must be cheap, they are called several times per step on the training thread.
+ */
+public interface TrainingMetrics {
+
+    enum Phase {
+        /**
+         * Reading the next sample from the data set.
+         */
+        DATA_LOADING,
+        /**
+         * Gan network output used as fake images by the discriminator.
+         */
+        GENERATOR_OUTPUT,
+        DISCRIMINATOR_FIT_INPUT,
+        DISCRIMINATOR_FIT_REAL,
+        DISCRIMINATOR_FIT_FAKE,
+        /**
+         * Copying discriminator parameters to the Gan network.
+         */
+        UPDATE_GAN_WITH_DISCRIMINATOR,
+        GENERATOR_FIT
+    }
+
+    TrainingMetrics NONE = new TrainingMetrics() {
+        @Override
+        public void phase(Phase phase, long nanos) {
+        }
+
+        @Override
+        public void step(int images, boolean discriminatorTrained, long nanos) {
+        }
+    };
+
+    /**
+     * @param nanos duration of the phase
+     */
+    void phase(Phase phase, long nanos);
+
+    /**
+     * Called once per finished training step.
+     *
+     * @param images number of images of the step
+     * @param discriminatorTrained false when the discriminator update was skipped in this step
+     * @param nanos duration of the whole step including data loading
+     */
+    void step(int images, boolean discriminatorTrained, long nanos);
+}
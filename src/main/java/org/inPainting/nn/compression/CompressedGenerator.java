@@ -0,0 +1,234 @@
+package org.inPainting.nn.compression;
+
+import lombok.Getter;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generator with compressed weight storage, created by {@link GeneratorCompressor}.
+ *
+ * Artifact is a zip with the graph configuration (configuration.json) and parameters (parameters.bin).
+ * Compressed parameters are stored as int8 values with one float scale per output channel (first dimension),
+ * value = q * scale. Other parameters (biases, batch normalization) are stored as floats.
+ *
+ * This is a storage format only: ND4J CPU backend has no int8 convolutions, so {@link #toComputationGraph()}
+ * expands the weights into a float network, which runs with the same cost and memory as the original one.
+ * Artifact is about 4 times smaller than the float model.
+ */
+public class CompressedGenerator {
+
+    private static final String CONFIGURATION_ENTRY = "configuration.json";
+    private static final String PARAMETERS_ENTRY = "parameters.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    @Getter
+    private final String configuration;
+    @Getter
+    private final List<Parameter> parameters;
+
+    public CompressedGenerator(String configuration, List<Parameter> parameters) {
+        this.configuration = configuration;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+
+    /**
+     * @return float network with weights expanded from int8
+     */
+    public ComputationGraph toComputationGraph() {
+        ComputationGraph graph = new ComputationGraph(ComputationGraphConfiguration.fromJson(configuration));
+        graph.init();
+
+        //copying by parameter key, flat setParams ordering differs between layer types
+        for (Parameter parameter : parameters)
+            graph.getLayer(parameter.getLayer()).getParam(parameter.getKey()).assign(parameter.toINDArray());
+        return graph;
+    }
+
+    /**
+     * @return size of the stored parameters in bytes
+     */
+    public long parametersSize() {
+        long size = 0;
+        for (Parameter parameter : parameters)
+            size += parameter.isQuantized()
+                    ? parameter.quantized.length + 4L * parameter.scales.length
+                    : 4L * parameter.values.length;
+        return size;
+    }
+
+    public void save(File file) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            zip.putNextEntry(new ZipEntry(CONFIGURATION_ENTRY));
+            zip.write(configuration.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry(PARAMETERS_ENTRY));
+            DataOutputStream out = new DataOutputStream(zip);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(parameters.size());
+            for (Parameter parameter : parameters)
+                parameter.write(out);
+            out.flush();
+            zip.closeEntry();
+        }
+    }
+
+    public static CompressedGenerator load(File file) throws IOException {
+        String configuration = null;
+        List<Parameter> parameters = null;
+
+        try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (CONFIGURATION_ENTRY.equals(entry.getName())) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    for (int read; (read = zip.read(buffer)) > 0; )
+                        bytes.write(buffer, 0, read);
+                    configuration = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                } else if (PARAMETERS_ENTRY.equals(entry.getName())) {
+                    DataInputStream in = new DataInputStream(zip);
+                    int version = in.readInt();
+                    if (version != FORMAT_VERSION)
+                        throw new IOException("Unsupported compressed generator version " + version);
+                    int count = in.readInt();
+                    parameters = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++)
+                        parameters.add(Parameter.read(in));
+                }
+            }
+        }
+
+        if (configuration == null || parameters == null)
+            throw new IOException("Not a compressed generator: " + file);
+        return new CompressedGenerator(configuration, parameters);
+    }
+
+    /**
+     * Parameter of one layer, either int8 with per channel scales or float.
+     */
+    public static class Parameter {
+        @Getter
+        private final String layer;
+        @Getter
+        private final String key;
+        @Getter
+        private final long[] shape;
+
+        private final float[] values;
+        private final byte[] quantized;
+        private final float[] scales;
+
+        private Parameter(String layer, String key, long[] shape, float[] values, byte[] quantized, float[] scales) {
+            this.layer = layer;
+            this.key = key;
+            this.shape = shape;
+            this.values = values;
+            this.quantized = quantized;
+            this.scales = scales;
+        }
+
+        public static Parameter of(String layer, String key, INDArray value) {
+            return new Parameter(layer, key, value.shape(), value.dup('c').data().asFloat(), null, null);
+        }
+
+        /**
+         * Symmetric int8 quantization with one scale per index of the first dimension.
+         */
+        public static Parameter quantize(String layer, String key, INDArray value) {
+            float[] data = value.dup('c').data().asFloat();
+            int channels = (int) value.size(0);
+            int channelSize = data.length / channels;
+
+            byte[] quantized = new byte[data.length];
+            float[] scales = new float[channels];
+            for (int c = 0; c < channels; c++) {
+                float max = 0.0f;
+                for (int i = c * channelSize; i < (c + 1) * channelSize; i++)
+                    max = Math.max(max, Math.abs(data[i]));
+
+                scales[c] = max > 0.0f ? max / 127.0f : 1.0f;
+                for (int i = c * channelSize; i < (c + 1) * channelSize; i++)
+                    quantized[i] = (byte) Math.max(-127, Math.min(127, Math.round(data[i] / scales[c])));
+            }
+            return new Parameter(layer, key, value.shape(), null, quantized, scales);
+        }
+
+        public boolean isQuantized() {
+            return quantized != null;
+        }
+
+        public INDArray toINDArray() {
+            if (!isQuantized())
+                return Nd4j.create(values, shape, DataType.FLOAT);
+
+            float[] data = new float[quantized.length];
+            int channelSize = data.length / scales.length;
+            for (int i = 0; i < data.length; i++)
+                data[i] = quantized[i] * scales[i / channelSize];
+            return Nd4j.create(data, shape, DataType.FLOAT);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(layer);
+            out.writeUTF(key);
+            out.writeInt(shape.length);
+            for (long s : shape)
+                out.writeLong(s);
+
+            out.writeBoolean(isQuantized());
+            if (isQuantized()) {
+                writeFloats(out, scales);
+                out.writeInt(quantized.length);
+                out.write(quantized);
+            } else {
+                writeFloats(out, values);
+            }
+        }
+
+        private static Parameter read(DataInputStream in) throws IOException {
+            String layer = in.readUTF();
+            String key = in.readUTF();
+            long[] shape = new long[in.readInt()];
+            for (int i = 0; i < shape.length; i++)
+                shape[i] = in.readLong();
+
+            if (in.readBoolean()) {
+                float[] scales = readFloats(in);
+                byte[] quantized = new byte[in.readInt()];
+                in.readFully(quantized);
+                return new Parameter(layer, key, shape, null, quantized, scales);
+            }
+
+            return new Parameter(layer, key, shape, readFloats(in), null, null);
+        }
+
+        private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+            buffer.asFloatBuffer().put(values);
+            out.writeInt(values.length);
+            out.write(buffer.array());
+        }
+
+        private static float[] readFloats(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[4 * in.readInt()];
+            in.readFully(bytes);
+            float[] values = new float[bytes.length / 4];
+            ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.inPainting.nn.compression;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.SeparableConvolution2D;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.ConvolutionParamInitializer;
+import org.deeplearning4j.nn.params.SeparableConvolutionParamInitializer;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.*;
+
+/**
+ * Compresses generator weights for storage, see {@link CompressedGenerator}.
+ *
+ * Convolution weights are stored as int8 per output channel (symmetric, scale = max |w| / 127), scales come
+ * from the weights themselves. Samples are used only for bias correction: rounding the weights changes
+ * the expected output of a convolution by (Wq - W) * E[x], the difference is subtracted from the bias using
+ * the mean input of every channel measured on the samples. Bias correction is applied to ConvolutionLayers,
+ * depthwise-separable layers are compressed without it.
+ */
+@Slf4j
+public final class GeneratorCompressor {
+
+    public static final int DEFAULT_CORRECTION_SAMPLES = 32;
+
+    private GeneratorCompressor() {
+    }
+
+    /**
+     * @param generator float generator, e.g. GAN.getGenerator()
+     * @param data training set, bias correction samples are drawn by nextRandom()
+     * @param samples number of bias correction samples
+     * @return generator with int8 weight storage
+     */
+    public static CompressedGenerator compress(ComputationGraph generator, ImageDataSetIterator data, int samples) {
+        List<INDArray[]> inputs = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++)
+            inputs.add(data.nextRandom().getFeatures());
+        return compress(generator, inputs);
+    }
+
+    /**
+     * @param generator float generator, e.g. GAN.getGenerator()
+     * @param samples bias correction inputs, image and mask
+     * @return generator with int8 weight storage
+     */
+    public static CompressedGenerator compress(ComputationGraph generator, List<INDArray[]> samples) {
+        Map<String, INDArray> inputMeans = inputMeans(generator, samples);
+
+        List<CompressedGenerator.Parameter> parameters = new ArrayList<>();
+        int compressed = 0;
+        for (Layer layer : generator.getLayers()) {
+            String name = layer.conf().getLayer().getLayerName();
+            org.deeplearning4j.nn.conf.layers.Layer conf = layer.conf().getLayer();
+
+            for (Map.Entry<String, INDArray> param : layer.paramTable().entrySet()) {
+                String key = param.getKey();
+
+                if (conf.getClass() == ConvolutionLayer.class && key.equals(ConvolutionParamInitializer.WEIGHT_KEY)) {
+                    parameters.add(CompressedGenerator.Parameter.quantize(name, key, param.getValue()));
+                    compressed++;
+                } else if (conf.getClass() == ConvolutionLayer.class && key.equals(ConvolutionParamInitializer.BIAS_KEY)
+                        && inputMeans.containsKey(name)) {
+                    parameters.add(CompressedGenerator.Parameter.of(name, key,
+                            correctBias(layer, inputMeans.get(name))));
+                } else if (conf instanceof SeparableConvolution2D
+                        && (key.equals(SeparableConvolutionParamInitializer.DEPTH_WISE_WEIGHT_KEY)
+                        || key.equals(SeparableConvolutionParamInitializer.POINT_WISE_WEIGHT_KEY))) {
+                    parameters.add(CompressedGenerator.Parameter.quantize(name, key, param.getValue()));
+                    compressed++;
+                } else
+                    parameters.add(CompressedGenerator.Parameter.of(name, key, param.getValue()));
+            }
+        }
+
+        log.info("Compressed " + compressed + " weight arrays, bias corrected " + inputMeans.size()
+                + " layers on " + samples.size() + " samples");
+        return new CompressedGenerator(generator.getConfiguration().toJson(), parameters);
+    }
+
+    /**
+     * @return convolution layer name -> mean of every input channel [nIn]
+     */
+    private static Map<String, INDArray> inputMeans(ComputationGraph generator, List<INDArray[]> samples) {
+        ComputationGraphConfiguration conf = generator.getConfiguration();
+        Map<String, INDArray> sums = new HashMap<>();
+        if (samples.isEmpty())
+            return sums;
+
+        for (INDArray[] input : samples) {
+            Map<String, INDArray> activations = generator.feedForward(input, false);
+
+            for (Layer layer : generator.getLayers()) {
+                String name = layer.conf().getLayer().getLayerName();
+                if (layer.conf().getLayer().getClass() != ConvolutionLayer.class
+                        || !((ConvolutionLayer) layer.conf().getLayer()).hasBias())
+                    continue;
+
+                INDArray mean = activations.get(conf.getVertexInputs().get(name).get(0)).mean(0, 2, 3);
+                sums.merge(name, mean, INDArray::addi);
+            }
+        }
+
+        sums.values().forEach(sum -> sum.divi(samples.size()));
+        return sums;
+    }
+
+    /**
+     * @return bias - (Wq - W) * E[x]
+     */
+    private static INDArray correctBias(Layer layer, INDArray inputMean) {
+        INDArray weights = layer.getParam(ConvolutionParamInitializer.WEIGHT_KEY);
+        INDArray error = CompressedGenerator.Parameter.quantize("", "", weights).toINDArray()
+                .castTo(weights.dataType()).subi(weights);
+
+        //[nOut, nIn, kH, kW] -> [nOut, nIn] x [nIn, 1]
+        INDArray shift = error.sum(2, 3).mmul(inputMean.reshape(inputMean.length(), 1).castTo(weights.dataType()));
+
+        INDArray bias = layer.getParam(ConvolutionParamInitializer.BIAS_KEY);
+        return bias.sub(shift.reshape(bias.shape()));
+    }
+}
@@ -0,0 +1,97 @@
+package org.inPainting.nn.descriptor;
+
+import lombok.Getter;
+import org.inPainting.nn.NeuralNetwork;
+import org.inPainting.nn.entry.LEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Topology of the generator and discriminator used by {@link org.inPainting.nn.GAN}.
+ *
+ * Layers are created on every call, DL4J layer configurations are modified while building a graph
+ * so they can not be shared between networks.
+ *
+ * Generator must contain "GENCNNLoss" output layer and discriminator "DISLoss" output layer.
+ * Wiring maps discriminator inputs to vertices of the Gan network, by default the first discriminator input
+ * is connected to the generator output and the others to "Input" and "Mask".
+ */
+public class NetworkDescriptor {
+
+    public static final String GENERATOR_LOSS = "GENCNNLoss";
+    public static final String DISCRIMINATOR_LOSS = "DISLoss";
+
+    private final Supplier<LEntry[]> generatorLayers;
+    private final Supplier<LEntry[]> discriminatorLayers;
+
+    @Getter
+    private final String generatorOutput;
+    @Getter
+    private final String[] discriminatorInputs;
+    @Getter
+    private final Map<String, String> wiring;
+
+    /**
+     * @param generatorLayers generator layers supplier
+     * @param generatorOutput name of the generator image output (pre-activation), null to use input of GENCNNLoss
+     * @param discriminatorLayers discriminator layers supplier
+     * @param discriminatorInputs names of the inputs of the standalone discriminator (generated, input, mask)
+     * @param wiring discriminator input name to Gan vertex name, null for the default wiring
+     */
+    public NetworkDescriptor(Supplier<LEntry[]> generatorLayers, String generatorOutput,
+                             Supplier<LEntry[]> discriminatorLayers, String[] discriminatorInputs,
+                             Map<String, String> wiring) {
+        if (discriminatorInputs.length != 3)
+            throw new IllegalArgumentException("Discriminator needs 3 inputs (generated, input, mask), got "
+                    + Arrays.toString(discriminatorInputs));
+
+        this.generatorLayers = generatorLayers;
+        this.discriminatorLayers = discriminatorLayers;
+        this.generatorOutput = generatorOutput != null ? generatorOutput : findGeneratorOutput(generatorLayers.get());
+        this.discriminatorInputs = discriminatorInputs;
+
+        if (wiring == null) {
+            wiring = new LinkedHashMap<>();
+            wiring.put(discriminatorInputs[0], this.generatorOutput);
+            wiring.put(discriminatorInputs[1], "Input");
+            wiring.put(discriminatorInputs[2], "Mask");
+        }
+        this.wiring = Collections.unmodifiableMap(wiring);
+    }
+
+    /**
+     * @return descriptor of {@link NeuralNetwork#genLayers()} and {@link NeuralNetwork#discriminatorLayers()}
+     */
+    public static NetworkDescriptor defaults() {
+        return new NetworkDescriptor(NeuralNetwork::genLayers, null,
+                NeuralNetwork::discriminatorLayers, new String[]{"Input1", "Input2", "Mask"}, null);
+    }
+
+    /**
+     * @param generatorLayers new generator layers supplier
+     * @return copy of this descriptor with the generator replaced, wiring is reset to default
+     */
+    public NetworkDescriptor withGenerator(Supplier<LEntry[]> generatorLayers) {
+        return new NetworkDescriptor(generatorLayers, null, discriminatorLayers, discriminatorInputs, null);
+    }
+
+    public LEntry[] generatorLayers() {
+        return generatorLayers.get();
+    }
+
+    public LEntry[] discriminatorLayers() {
+        return discriminatorLayers.get();
+    }
+
+    private static String findGeneratorOutput(LEntry[] entries) {
+        for (LEntry entry : entries)
+            if (GENERATOR_LOSS.equals(entry.getLayerName()))
+                return entry.getInputs()[0];
+
+        throw new IllegalArgumentException("Generator has no " + GENERATOR_LOSS + " layer");
+    }
+}
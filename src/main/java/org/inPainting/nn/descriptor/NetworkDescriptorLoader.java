@@ -0,0 +1,260 @@
+package org.inPainting.nn.descriptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.layers.*;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.entry.LEntry;
+import org.inPainting.nn.entry.LayerEntry;
+import org.inPainting.nn.entry.VertexEntry;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Loads {@link NetworkDescriptor} from JSON (.json) or YAML (.yml, .yaml) file.
+ *
+ * <pre>
+ * generator:
+ *   builder: {widthMultiplier: 0.5, depth: 3, separable: false}   # or "layers" list
+ *   output: conv8                                                  # optional, input of GENCNNLoss by default
+ * discriminator:
+ *   inputs: [Input1, Input2, Mask]
+ *   layers:
+ *     - {name: merge2, type: merge, inputs: [Input1, Input2, Mask]}
+ *     - {name: conv11, type: conv, kernel: [4, 4], stride: [2, 2], nIn: 7, nOut: 64, activation: leakyrelu, inputs: [merge2]}
+ *     - {name: lrn1, type: batchNorm, inputs: [conv11]}
+ *     ...
+ * wiring: {Input1: conv10, Input2: Input, Mask: Mask}              # optional
+ * </pre>
+ *
+ * Layer types: merge, conv, separableConv, maxPool, avgPool, upsampling, dropout, batchNorm, cnnLoss.
+ * Convolutions use ConvolutionMode.Same unless "mode" is given.
+ *
+ * Parsed documents are cached by file path and modification time, layers are compiled on every use.
+ */
+@Slf4j
+public final class NetworkDescriptorLoader {
+
+    private static final Map<String, CachedDocument> cache = new ConcurrentHashMap<>();
+
+    private NetworkDescriptorLoader() {
+    }
+
+    public static NetworkDescriptor load(File file) throws IOException {
+        return compile(parse(file));
+    }
+
+    /**
+     * @param content descriptor content
+     * @param yaml true for YAML, false for JSON
+     */
+    public static NetworkDescriptor load(String content, boolean yaml) throws IOException {
+        return compile(parse(new StringReader(content), yaml));
+    }
+
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    private static Map<String, Object> parse(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long modified = file.lastModified();
+
+        CachedDocument cached = cache.get(key);
+        if (cached != null && cached.modified == modified)
+            return cached.document;
+
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        Map<String, Object> document;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            document = parse(reader, name.endsWith(".yml") || name.endsWith(".yaml"));
+        }
+
+        cache.put(key, new CachedDocument(modified, document));
+        log.info("Parsed network descriptor " + key);
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(Reader reader, boolean yaml) throws IOException {
+        Object document = yaml ? new Yaml().load(reader) : new ObjectMapper().readValue(reader, Map.class);
+        if (!(document instanceof Map))
+            throw new IllegalArgumentException("Network descriptor must be an object");
+        return Collections.unmodifiableMap((Map<String, Object>) document);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NetworkDescriptor compile(Map<String, Object> document) {
+        NetworkDescriptor defaults = NetworkDescriptor.defaults();
+
+        Map<String, Object> generator = (Map<String, Object>) document.get("generator");
+        Map<String, Object> discriminator = (Map<String, Object>) document.get("discriminator");
+
+        Supplier<LEntry[]> generatorLayers = defaults::generatorLayers;
+        String generatorOutput = null;
+        if (generator != null) {
+            generatorLayers = generatorLayers(generator);
+            generatorOutput = (String) generator.get("output");
+        }
+
+        Supplier<LEntry[]> discriminatorLayers = defaults::discriminatorLayers;
+        String[] discriminatorInputs = defaults.getDiscriminatorInputs();
+        if (discriminator != null) {
+            List<Map<String, Object>> layers = (List<Map<String, Object>>) discriminator.get("layers");
+            if (layers != null)
+                discriminatorLayers = () -> layers(layers);
+            if (discriminator.containsKey("inputs"))
+                discriminatorInputs = ((List<String>) discriminator.get("inputs")).toArray(new String[0]);
+        }
+
+        Map<String, String> wiring = null;
+        if (document.containsKey("wiring"))
+            wiring = new LinkedHashMap<>((Map<String, String>) document.get("wiring"));
+
+        NetworkDescriptor descriptor = new NetworkDescriptor(generatorLayers, generatorOutput,
+                discriminatorLayers, discriminatorInputs, wiring);
+
+        //compiling once to report errors while loading instead of while building the network
+        descriptor.generatorLayers();
+        descriptor.discriminatorLayers();
+        return descriptor;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<LEntry[]> generatorLayers(Map<String, Object> generator) {
+        if (generator.containsKey("layers")) {
+            List<Map<String, Object>> layers = (List<Map<String, Object>>) generator.get("layers");
+            return () -> layers(layers);
+        }
+
+        GeneratorBuilder builder = new GeneratorBuilder();
+        Map<String, Object> settings = (Map<String, Object>) generator.getOrDefault("builder", Collections.emptyMap());
+        if (settings.containsKey("widthMultiplier"))
+            builder.widthMultiplier(((Number) settings.get("widthMultiplier")).doubleValue());
+        if (settings.containsKey("depth"))
+            builder.depth(((Number) settings.get("depth")).intValue());
+        if (settings.containsKey("separable"))
+            builder.separable((Boolean) settings.get("separable"));
+        return builder::build;
+    }
+
+    private static LEntry[] layers(List<Map<String, Object>> layers) {
+        LEntry[] entries = new LEntry[layers.size()];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = entry(layers.get(i));
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LEntry entry(Map<String, Object> layer) {
+        String name = (String) layer.get("name");
+        String type = (String) layer.get("type");
+        if (name == null || type == null)
+            throw new IllegalArgumentException("Layer without name or type: " + layer);
+
+        String[] inputs = ((List<String>) layer.getOrDefault("inputs", Collections.emptyList())).toArray(new String[0]);
+        ConvolutionLayer.AlgoMode cudnnAlgoMode = ConvolutionLayer.AlgoMode.PREFER_FASTEST;
+
+        switch (type) {
+            case "merge":
+                return new VertexEntry(name, new MergeVertex(), inputs);
+            case "conv": {
+                ConvolutionLayer.Builder builder = new ConvolutionLayer.Builder(pair(layer, "kernel", 3))
+                        .stride(pair(layer, "stride", 1))
+                        .convolutionMode(mode(layer)).cudnnAlgoMode(cudnnAlgoMode)
+                        .activation(activation(layer, Activation.RELU))
+                        .nOut(integer(layer, "nOut"));
+                if (layer.containsKey("nIn"))
+                    builder.nIn(integer(layer, "nIn"));
+                return new LayerEntry(name, builder.build(), inputs);
+            }
+            case "separableConv": {
+                SeparableConvolution2D.Builder builder = new SeparableConvolution2D.Builder(pair(layer, "kernel", 3))
+                        .stride(pair(layer, "stride", 1))
+                        .depthMultiplier(((Number) layer.getOrDefault("depthMultiplier", 1)).intValue())
+                        .convolutionMode(mode(layer)).cudnnAlgoMode(cudnnAlgoMode)
+                        .activation(activation(layer, Activation.RELU))
+                        .nOut(integer(layer, "nOut"));
+                if (layer.containsKey("nIn"))
+                    builder.nIn(integer(layer, "nIn"));
+                return new LayerEntry(name, builder.build(), inputs);
+            }
+            case "maxPool":
+            case "avgPool": {
+                int[] kernel = pair(layer, "kernel", 2);
+                return new LayerEntry(name, new SubsamplingLayer.Builder(type.equals("maxPool")
+                        ? SubsamplingLayer.PoolingType.MAX : SubsamplingLayer.PoolingType.AVG)
+                        .kernelSize(kernel).stride(layer.containsKey("stride") ? pair(layer, "stride", 2) : kernel)
+                        .build(), inputs);
+            }
+            case "upsampling":
+                return new LayerEntry(name, new Upsampling2D.Builder(((Number) layer.getOrDefault("size", 2)).intValue())
+                        .build(), inputs);
+            case "dropout":
+                return new LayerEntry(name, new DropoutLayer.Builder(((Number) layer.getOrDefault("dropout", 0.5)).doubleValue())
+                        .build(), inputs);
+            case "batchNorm":
+                return new LayerEntry(name, new BatchNormalization.Builder().build(), inputs);
+            case "cnnLoss":
+                return new LayerEntry(name, new CnnLossLayer.Builder(LossFunctions.LossFunction.valueOf(
+                        ((String) layer.getOrDefault("loss", "MEAN_ABSOLUTE_ERROR")).toUpperCase(Locale.ROOT)))
+                        .activation(activation(layer, Activation.SIGMOID)).build(), inputs);
+            default:
+                throw new IllegalArgumentException("Unknown layer type " + type + " of layer " + name);
+        }
+    }
+
+    private static int integer(Map<String, Object> layer, String key) {
+        Object value = layer.get(key);
+        if (!(value instanceof Number))
+            throw new IllegalArgumentException("Layer " + layer.get("name") + " requires numeric " + key);
+        return ((Number) value).intValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int[] pair(Map<String, Object> layer, String key, int defaultValue) {
+        Object value = layer.get(key);
+        if (value == null)
+            return new int[]{defaultValue, defaultValue};
+        if (value instanceof Number)
+            return new int[]{((Number) value).intValue(), ((Number) value).intValue()};
+
+        List<Number> values = (List<Number>) value;
+        return new int[]{values.get(0).intValue(), values.get(1).intValue()};
+    }
+
+    private static Activation activation(Map<String, Object> layer, Activation defaultValue) {
+        Object value = layer.get("activation");
+        return value == null ? defaultValue : Activation.fromString((String) value);
+    }
+
+    private static ConvolutionMode mode(Map<String, Object> layer) {
+        Object value = layer.get("mode");
+        if (value == null)
+            return ConvolutionMode.Same;
+
+        for (ConvolutionMode mode : ConvolutionMode.values())
+            if (mode.name().equalsIgnoreCase((String) value))
+                return mode;
+        throw new IllegalArgumentException("Unknown convolution mode " + value + " of layer " + layer.get("name"));
+    }
+
+    private static class CachedDocument {
+        private final long modified;
+        private final Map<String, Object> document;
+
+        private CachedDocument(long modified, Map<String, Object> document) {
+            this.modified = modified;
+            this.document = document;
+        }
+    }
+}
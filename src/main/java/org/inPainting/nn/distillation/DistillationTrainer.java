@@ -0,0 +1,94 @@
+package org.inPainting.nn.distillation;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.learning.config.Adam;
+
+import java.util.function.Supplier;
+
+/**
+ * Teacher-student distillation of the generator.
+ *
+ * Student is a Gan with a smaller generator (see {@link GeneratorBuilder}) and the existing discriminator.
+ * Its generator is trained on the teacher output instead of the expected image (L1 of GENCNNLoss),
+ * together with the adversarial signal of the discriminator, which is still trained on the expected images.
+ */
+@Slf4j
+public class DistillationTrainer {
+
+    /**
+     * Every n-th step trains the discriminator, as in the learning GUI.
+     */
+    public static final int DISCRIMINATOR_INTERVAL = 4;
+
+    private final ComputationGraph teacher;
+    @Getter
+    private final GAN student;
+    @Getter
+    private long steps;
+
+    /**
+     * @param teacher trained generator, e.g. GAN.getGenerator() of gan.zip
+     * @param student Gan with the student generator
+     */
+    public DistillationTrainer(ComputationGraph teacher, GAN student) {
+        this.teacher = teacher;
+        this.student = student;
+    }
+
+    /**
+     * @param teacher trained generator, e.g. GAN.getGenerator() of gan.zip
+     * @param studentGenerator layers of the student generator
+     * @param discriminator supplier of the discriminator used for the adversarial signal
+     */
+    public DistillationTrainer(ComputationGraph teacher, GeneratorBuilder studentGenerator,
+                               Supplier<ComputationGraph> discriminator) {
+        this(teacher, new GAN.Builder()
+                .generatorLayers(studentGenerator::build)
+                .discriminator(discriminator)
+                .updater(Adam.builder()
+                        .learningRate(GAN.LEARNING_RATE)
+                        .beta1(GAN.LEARNING_BETA1).build())
+                .build());
+    }
+
+    /**
+     * One distillation step.
+     *
+     * @param next image and mask as features, expected image as first label
+     * @param trainDiscriminator determine should Discriminator be train
+     */
+    public void fit(MultiDataSet next, boolean trainDiscriminator) {
+        if (trainDiscriminator)
+            student.fitDiscriminator(next);
+
+        INDArray target = teacher.outputSingle(next.getFeatures());
+        student.fitGenerator(next.getFeatures(), target);
+        steps++;
+    }
+
+    /**
+     * Distills over the data set, resetting it when it runs out of samples.
+     *
+     * @param data training set, e.g. ImageLoader.prepareInFileData()
+     * @param iterations number of steps
+     */
+    public void fit(ImageDataSetIterator data, long iterations) {
+        for (long i = 0; i < iterations; i++) {
+            if (!data.hasNext()) {
+                log.info("Resetting ImageDataSetIterator");
+                data.reset();
+            }
+            fit(data.next(), steps % DISCRIMINATOR_INTERVAL == 0);
+
+            if (steps % 100 == 0)
+                log.info("Distillation step " + steps + ", score " + student.getNetwork().score());
+        }
+    }
+}
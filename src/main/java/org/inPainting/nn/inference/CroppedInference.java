@@ -0,0 +1,203 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inpainting only around the holes of the mask.
+ *
+ * Connected hole regions (mask != 0, 8-connectivity) are found, their bounding boxes are enlarged by the context margin,
+ * aligned to the generator down sampling factor and merged while they overlap.
+ * Generator runs on every crop and hole pixels of the crop are merged into the original image,
+ * so compute is proportional to the crops area instead of the whole image.
+ * Crops are kept inside of the image, so a crop spanning an image side which is not a multiple of the alignment
+ * is padded with zeros (mask 0) to the next multiple before the generator runs, as tiles in {@link TiledInference}.
+ */
+@Slf4j
+public class CroppedInference {
+
+    private final ComputationGraph generator;
+
+    @Getter
+    private final int margin;
+
+    @Getter
+    private final int alignment;
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param margin context in pixels around every hole
+     */
+    public CroppedInference(ComputationGraph generator, int margin) {
+        this.generator = generator;
+        this.margin = margin;
+        this.alignment = downsamplingFactor(generator);
+    }
+
+    /**
+     * @param image input images [n, 3, h, w]
+     * @param mask masks [n, 1, h, w], non zero values mark pixels to inpaint
+     * @return input images with holes filled by the generator
+     */
+    public INDArray inpaint(INDArray image, INDArray mask) {
+        INDArray result = image.dup();
+        long height = image.size(2);
+        long width = image.size(3);
+
+        for (int n = 0; n < image.size(0); n++) {
+            List<Region> regions = cropRegions(mask.get(NDArrayIndex.point(n), NDArrayIndex.point(0)), margin, alignment);
+
+            long area = 0;
+            for (Region region : regions) {
+                INDArrayIndex[] index = index(n, region);
+                INDArray cropImage = image.get(index).dup('c');
+                INDArray cropMask = mask.get(index).dup('c');
+
+                INDArray generated = generator.outputSingle(TiledInference.pad(cropImage, alignment),
+                        TiledInference.pad(cropMask, alignment));
+                if (generated.size(2) != region.getHeight() || generated.size(3) != region.getWidth())
+                    generated = generated.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                            NDArrayIndex.interval(0, region.getHeight()), NDArrayIndex.interval(0, region.getWidth()));
+                result.get(index).assign(ImageLoader.mergeInPlace(cropImage, cropMask, generated));
+                area += region.area();
+            }
+            log.debug("Cropped inference of " + regions.size() + " regions, "
+                    + (100 * area / (height * width)) + "% of the image");
+        }
+        return result;
+    }
+
+    /**
+     * @param mask single mask [h, w]
+     * @param margin context in pixels around every hole
+     * @param alignment crop sizes are multiples of alignment, except crops spanning the whole width or height
+     *                  of an image whose size is not a multiple of it
+     * @return not overlapping crops containing all holes of the mask
+     */
+    public static List<Region> cropRegions(INDArray mask, int margin, int alignment) {
+        int height = (int) mask.size(0);
+        int width = (int) mask.size(1);
+
+        List<Region> regions = new ArrayList<>();
+        for (Region hole : findHoles(mask))
+            regions.add(align(new Region(hole.getX() - margin, hole.getY() - margin,
+                    hole.getWidth() + 2 * margin, hole.getHeight() + 2 * margin), alignment, width, height));
+
+        //merging overlapping crops until none overlap
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size() && !merged; i++)
+                for (int j = i + 1; j < regions.size() && !merged; j++)
+                    if (regions.get(i).intersects(regions.get(j))) {
+                        Region union = align(regions.get(i).union(regions.get(j)), alignment, width, height);
+                        regions.remove(j);
+                        regions.set(i, union);
+                        merged = true;
+                    }
+        }
+        return regions;
+    }
+
+    /**
+     * @param mask single mask [h, w]
+     * @return bounding boxes of 8-connected regions of non zero mask values
+     */
+    public static List<Region> findHoles(INDArray mask) {
+        int height = (int) mask.size(0);
+        int width = (int) mask.size(1);
+        float[] values = mask.dup('c').data().asFloat();
+
+        boolean[] visited = new boolean[values.length];
+        int[] stack = new int[values.length];
+        List<Region> holes = new ArrayList<>();
+
+        for (int start = 0; start < values.length; start++) {
+            if (visited[start] || values[start] == 0.0f)
+                continue;
+
+            int minX = width, minY = height, maxX = 0, maxY = 0;
+            int size = 0;
+            stack[size++] = start;
+            visited[start] = true;
+
+            while (size > 0) {
+                int p = stack[--size];
+                int px = p % width;
+                int py = p / width;
+                minX = Math.min(minX, px);
+                maxX = Math.max(maxX, px);
+                minY = Math.min(minY, py);
+                maxY = Math.max(maxY, py);
+
+                for (int dy = -1; dy <= 1; dy++)
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = px + dx;
+                        int ny = py + dy;
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                            continue;
+                        int q = ny * width + nx;
+                        if (!visited[q] && values[q] != 0.0f) {
+                            visited[q] = true;
+                            stack[size++] = q;
+                        }
+                    }
+            }
+            holes.add(new Region(minX, minY, maxX - minX + 1, maxY - minY + 1));
+        }
+        return holes;
+    }
+
+    /**
+     * @param generator generator network
+     * @return product of strides of the pooling layers, input sizes must be multiples of it
+     */
+    public static int downsamplingFactor(ComputationGraph generator) {
+        int factor = 1;
+        for (GraphVertex vertex : generator.getConfiguration().getVertices().values())
+            if (vertex instanceof LayerVertex && ((LayerVertex) vertex).getLayerConf().getLayer() instanceof SubsamplingLayer)
+                factor *= ((SubsamplingLayer) ((LayerVertex) vertex).getLayerConf().getLayer()).getStride()[0];
+        return factor;
+    }
+
+    /**
+     * Enlarges region to a multiple of alignment, keeping it inside of the image.
+     * A side clamped to the image size is not aligned, {@link #inpaint} pads such crops.
+     */
+    static Region align(Region region, int alignment, int width, int height) {
+        int x = Math.max(0, region.getX());
+        int y = Math.max(0, region.getY());
+        int w = alignedSize(Math.min(region.getMaxX(), width) - x, alignment, width);
+        int h = alignedSize(Math.min(region.getMaxY(), height) - y, alignment, height);
+
+        //moving back into the image if enlarged crop does not fit
+        x = Math.min(x, width - w);
+        y = Math.min(y, height - h);
+        return new Region(x, y, w, h);
+    }
+
+    private static int alignedSize(int size, int alignment, int limit) {
+        int aligned = ((size + alignment - 1) / alignment) * alignment;
+        return aligned > limit ? limit : aligned;
+    }
+
+    private static INDArrayIndex[] index(int n, Region region) {
+        return new INDArrayIndex[]{
+                NDArrayIndex.interval(n, n + 1),
+                NDArrayIndex.all(),
+                NDArrayIndex.interval(region.getY(), region.getMaxY()),
+                NDArrayIndex.interval(region.getX(), region.getMaxX())
+        };
+    }
+}
@@ -0,0 +1,13 @@
+package org.inPainting.nn.inference;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Request was shed by {@link InferenceScheduler}, its deadline passed or could not be met with the current queue.
+ */
+public class DeadlineExceededException extends RejectedExecutionException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,113 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Pool of generator replicas for concurrent inference.
+ *
+ * ComputationGraph keeps per call state (layer inputs, workspaces), so one graph must not be used by several threads
+ * at once. Replicas are separate graphs of the same configuration initialized on the parameters of the source
+ * generator without copying, every replica has its own layers state and workspaces. Threads borrow an idle replica
+ * and wait if all are in use.
+ *
+ * Parameters are shared, so the source network must not be trained while the pool is used.
+ */
+@Slf4j
+public class GeneratorPool {
+
+    private final BlockingQueue<ComputationGraph> idle;
+
+    @Getter
+    private final int size;
+
+    /**
+     * @param generator generator network, e.g. GAN.getGenerator()
+     * @see #defaultSize()
+     */
+    public GeneratorPool(ComputationGraph generator) {
+        this(generator, defaultSize());
+    }
+
+    /**
+     * @param generator generator network, e.g. GAN.getGenerator()
+     * @param size number of replicas
+     */
+    public GeneratorPool(ComputationGraph generator, int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Pool size must be at least 1, got " + size);
+        this.size = size;
+        this.idle = new ArrayBlockingQueue<>(size);
+
+        for (int i = 0; i < size; i++) {
+            ComputationGraph replica = new ComputationGraph(generator.getConfiguration().clone());
+            replica.init(generator.params(), false);
+            idle.add(replica);
+        }
+        log.info("Generator pool of " + size + " replicas");
+    }
+
+    /**
+     * Every ND4J operation runs on the number of threads of the ND4J environment (all cores unless limited,
+     * e.g. by OMP_NUM_THREADS or Nd4j.getEnvironment().setMaxThreads), so cores / threads replicas saturate
+     * the CPU. Limit the threads to a fraction of the cores to serve more requests concurrently.
+     *
+     * @return number of replicas for available cores and effective ND4J thread count
+     */
+    public static int defaultSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, Math.min(cores, Nd4j.getEnvironment().maxThreads()));
+        return Math.max(1, cores / threads);
+    }
+
+    /**
+     * @return idle replica, waits until some is returned
+     */
+    public ComputationGraph borrow() throws InterruptedException {
+        return idle.take();
+    }
+
+    /**
+     * @param replica replica returned by {@link #borrow()}
+     */
+    public void release(ComputationGraph replica) {
+        idle.add(replica);
+    }
+
+    /**
+     * Runs the action on a borrowed replica.
+     */
+    public <T> T execute(Function<ComputationGraph, T> action) throws InterruptedException {
+        ComputationGraph replica = borrow();
+        try {
+            return action.apply(replica);
+        } finally {
+            release(replica);
+        }
+    }
+
+    /**
+     * @param image input images [n, 3, h, w]
+     * @param mask masks [n, 1, h, w]
+     * @return generator output
+     */
+    public INDArray output(INDArray image, INDArray mask) throws InterruptedException {
+        return execute(replica -> replica.outputSingle(image, mask));
+    }
+
+    /**
+     * Clears state of the idle replicas and drops them, call when no replica is borrowed.
+     * Parameters are released once the source generator is not referenced either.
+     */
+    public void close() {
+        for (ComputationGraph replica; (replica = idle.poll()) != null; )
+            replica.clearLayersStates();
+    }
+}
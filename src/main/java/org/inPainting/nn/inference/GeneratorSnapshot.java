@@ -0,0 +1,99 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-only copy of the generator parameters, previews run on the copy while the source network trains.
+ *
+ * Copy is refreshed by the training thread between iterations, so it never sees parameters of a half applied update.
+ * Refresh does not wait: while a preview is running on the copy it is skipped, training never blocks on previews.
+ * Preview runs on every scale-th pixel, which cuts its cost (and competition with training for cores)
+ * by scale squared.
+ */
+public class GeneratorSnapshot {
+
+    private final ComputationGraph source;
+    private final ComputationGraph copy;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Preview is rendered at 1/scale of the input resolution.
+     */
+    @Getter
+    private final int scale;
+
+    /**
+     * Training iteration of the copied parameters, -1 before the first refresh.
+     */
+    @Getter
+    private volatile long iteration = -1;
+
+    /**
+     * @param generator generator network, e.g. GAN.getGenerator(), a view of the trained parameters
+     * @param height input height of the previewed images
+     * @param width input width of the previewed images
+     * @param scale preview is rendered at 1/scale of the input resolution
+     * @throws IllegalArgumentException if the scaled size is not a multiple of the generator down sampling factor
+     */
+    public GeneratorSnapshot(ComputationGraph generator, int height, int width, int scale) {
+        int alignment = CroppedInference.downsamplingFactor(generator);
+        if (scale < 1 || height % scale != 0 || width % scale != 0
+                || (height / scale) % alignment != 0 || (width / scale) % alignment != 0)
+            throw new IllegalArgumentException("Preview scale " + scale + " of " + width + "x" + height
+                    + " input does not give a size divisible by the generator down sampling factor " + alignment);
+
+        this.scale = scale;
+        this.source = generator;
+        this.copy = new ComputationGraph(generator.getConfiguration().clone());
+        this.copy.init(generator.params().dup(), false);
+    }
+
+    /**
+     * Copies current parameters of the source network, call from the training thread between iterations.
+     *
+     * @return false if a preview is running and the copy was not refreshed
+     */
+    public boolean tryRefresh(long iteration) {
+        if (!lock.tryLock())
+            return false;
+        try {
+            copy.params().assign(source.params());
+            this.iteration = iteration;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param image input images [n, 3, h, w]
+     * @param mask masks [n, 1, h, w]
+     * @return generator output of the copied parameters for the downscaled inputs [n, 3, h / scale, w / scale]
+     */
+    public INDArray output(INDArray image, INDArray mask) {
+        INDArray scaledImage = downscale(image);
+        INDArray scaledMask = downscale(mask);
+        lock.lock();
+        try {
+            return copy.outputSingle(scaledImage, scaledMask);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return every scale-th pixel of the array [n, c, h, w]
+     */
+    public INDArray downscale(INDArray array) {
+        if (scale == 1)
+            return array;
+        return array.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                NDArrayIndex.interval(0, scale, array.size(2)),
+                NDArrayIndex.interval(0, scale, array.size(3))).dup('c');
+    }
+}
@@ -0,0 +1,70 @@
+package org.inPainting.nn.inference;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Tile source of image and mask files. Both files are decoded once, in a single pass keeping a few rows
+ * in memory, into temporary raw files ({@link RawImageFile}), regions are then read from those files.
+ * The whole image is never held in memory and reading a region costs only its size.
+ */
+public class ImageFileSource implements TiledInference.TileSource, AutoCloseable {
+
+    private final RawImageFile image;
+    private final RawImageFile mask;
+
+    /**
+     * @param image input image file
+     * @param mask mask file of the same size, value of a pixel is its brightness
+     */
+    public ImageFileSource(File image, File mask) throws IOException {
+        this.image = new RawImageFile(image, 3);
+        try {
+            this.mask = new RawImageFile(mask, 1);
+        } catch (IOException | RuntimeException e) {
+            this.image.close();
+            throw e;
+        }
+
+        if (this.mask.getWidth() != getWidth() || this.mask.getHeight() != getHeight()) {
+            close();
+            throw new IOException("Mask " + mask + " size differs from image size " + getWidth() + "x" + getHeight());
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public INDArray[] read(Region region) {
+        try {
+            return new INDArray[]{
+                    Nd4j.create(image.read(region), new long[]{1, 3, region.getHeight(), region.getWidth()}, DataType.FLOAT),
+                    Nd4j.create(mask.read(region), new long[]{1, 1, region.getHeight(), region.getWidth()}, DataType.FLOAT)
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read region " + region, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            image.close();
+        } finally {
+            mask.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.utils.ImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Dynamic micro-batching of generator requests.
+ *
+ * Requests are queued, a worker thread takes the first waiting request and collects more
+ * until the batch has maxBatchSize requests or maxDelay elapsed since the first one was taken,
+ * then runs one batched forward pass. Larger batches and delays trade latency for throughput.
+ *
+ * There is one worker per generator replica, so batches run concurrently on several replicas. Every batch runs
+ * on the current version of {@link ModelRegistry}, a model replaced meanwhile serves the batches already started.
+ * Requests are queued by {@link InferenceScheduler}: interactive requests run before bulk ones,
+ * requests with a timeout are shed when it can not be met. All requests must have the generator input size.
+ */
+@Slf4j
+public class InferenceBatcher implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    @Getter
+    private final ModelRegistry registry;
+
+    @Getter
+    private final int maxBatchSize;
+    @Getter
+    private final long maxDelayMillis;
+
+    private final InferenceScheduler<Request> scheduler;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     */
+    public InferenceBatcher(ComputationGraph generator) {
+        this(registry(generator), DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_QUEUE_CAPACITY,
+                InferenceScheduler.DEFAULT_BULK_INTERVAL);
+    }
+
+    /**
+     * @param registry versions of the generator network with "Input" and "Mask" inputs, one worker per replica
+     * @param maxBatchSize maximum number of requests of one forward pass
+     * @param maxDelayMillis maximum time to wait for more requests after the first request of a batch
+     * @param queueCapacity maximum number of waiting requests of every priority, further requests are rejected
+     * @param bulkInterval every bulkInterval-th batch runs bulk requests when they wait, 0 for strict priority
+     */
+    public InferenceBatcher(ModelRegistry registry, int maxBatchSize, long maxDelayMillis, int queueCapacity, int bulkInterval) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1, got " + maxBatchSize);
+        this.registry = registry;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = new InferenceScheduler<>(queueCapacity, registry.getReplicas(), bulkInterval);
+
+        for (int i = 0; i < registry.getReplicas(); i++) {
+            Thread worker = new Thread(this::run, "inference-batcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * @param image input image [1, 3, h, w]
+     * @param mask mask [1, 1, h, w], non zero values mark pixels to inpaint
+     * @return input image with holes filled by the generator, completed with RejectedExecutionException
+     * if the queue is full
+     */
+    public CompletableFuture<InpaintingResult> submit(INDArray image, INDArray mask) {
+        return submit(image, mask, InferenceScheduler.Priority.INTERACTIVE, 0);
+    }
+
+    /**
+     * @param image input image [1, 3, h, w]
+     * @param mask mask [1, 1, h, w], non zero values mark pixels to inpaint
+     * @param priority priority class of the request
+     * @param timeoutMillis time the result is useful for, 0 for none
+     * @return input image with holes filled by the generator, completed with RejectedExecutionException
+     * if the queue is full or {@link DeadlineExceededException} if the timeout can not be met
+     */
+    public CompletableFuture<InpaintingResult> submit(INDArray image, INDArray mask, InferenceScheduler.Priority priority, long timeoutMillis) {
+        Request request = new Request(image, mask);
+        if (!running)
+            request.result.completeExceptionally(new RejectedExecutionException("Inference batcher closed"));
+        else
+            scheduler.offer(request, request.result, priority,
+                    timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0);
+        return request.result;
+    }
+
+    /**
+     * @return number of waiting requests
+     */
+    public int queued() {
+        return scheduler.size();
+    }
+
+    /**
+     * @return queue depth, wait times and shed requests of every priority class, see {@link InferenceScheduler#statistics()}
+     */
+    public Map<String, Object> statistics() {
+        return scheduler.statistics();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        scheduler.clear(new RejectedExecutionException("Inference batcher closed"));
+    }
+
+    private void run() {
+        while (running) {
+            List<Request> batch;
+            try {
+                batch = scheduler.take(maxBatchSize, maxDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                process(batch);
+                scheduler.completed(batch.size(), System.nanoTime() - start);
+            } catch (InterruptedException e) {
+                batch.forEach(request -> request.result.completeExceptionally(e));
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Batched inference of " + batch.size() + " requests failed", e);
+                batch.forEach(request -> request.result.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void process(List<Request> batch) throws InterruptedException {
+        INDArray[] images = new INDArray[batch.size()];
+        INDArray[] masks = new INDArray[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            images[i] = batch.get(i).image;
+            masks[i] = batch.get(i).mask;
+        }
+
+        INDArray input = Nd4j.concat(0, images);
+        INDArray mask = Nd4j.concat(0, masks);
+        INDArray output;
+        String version;
+        ModelVersion model = registry.acquire();
+        try {
+            output = model.getPool().output(input, mask);
+            version = model.getVersion();
+        } finally {
+            model.release();
+        }
+
+        //whole batch merged at once, results are views of the output
+        ImageLoader.mergeInPlace(input, mask, output);
+        for (int i = 0; i < batch.size(); i++) {
+            INDArray merged = output.get(NDArrayIndex.interval(i, i + 1), NDArrayIndex.all(),
+                    NDArrayIndex.all(), NDArrayIndex.all());
+            batch.get(i).result.complete(new InpaintingResult(merged, version));
+        }
+        log.debug("Batched inference of " + batch.size() + " requests");
+    }
+
+    private static ModelRegistry registry(ComputationGraph generator) {
+        ModelRegistry registry = new ModelRegistry(1);
+        registry.register("default", generator);
+        return registry;
+    }
+
+    private static class Request {
+        private final INDArray image;
+        private final INDArray mask;
+        private final CompletableFuture<InpaintingResult> result = new CompletableFuture<>();
+
+        private Request(INDArray image, INDArray mask) {
+            this.image = image;
+            this.mask = mask;
+        }
+    }
+}
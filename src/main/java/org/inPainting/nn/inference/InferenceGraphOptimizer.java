@@ -0,0 +1,158 @@
+package org.inPainting.nn.inference;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.DropoutLayer;
+import org.deeplearning4j.nn.conf.layers.SeparableConvolution2D;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.params.ConvolutionParamInitializer;
+import org.deeplearning4j.nn.params.SeparableConvolutionParamInitializer;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.*;
+
+/**
+ * Inference-only rewrite of a trained ComputationGraph.
+ *
+ * DropoutLayers are identity at inference, so they are removed and their consumers are connected to the dropout input.
+ * BatchNormalization with identity activation directly following a convolution with identity activation is folded
+ * into the convolution weights and bias: W' = W * gamma / std, b' = (b - mean) * gamma / std + beta,
+ * std = sqrt(var + eps), or 10^log10std for layers storing the logarithm of std.
+ *
+ * BatchNormalization placed after a non-linearity (as in discriminatorLayers(), conv -> LeakyReLU -> BN)
+ * can not be folded into the preceding convolution without changing the output, such layers are kept.
+ *
+ * Returned graph has its own copy of parameters and must not be trained.
+ */
+@Slf4j
+public final class InferenceGraphOptimizer {
+
+    private InferenceGraphOptimizer() {
+    }
+
+    /**
+     * @param graph trained network
+     * @return new network without dropout layers and with foldable BatchNormalization merged into convolutions
+     */
+    public static ComputationGraph optimize(ComputationGraph graph) {
+        ComputationGraphConfiguration conf = graph.getConfiguration().clone();
+
+        //conv layer name -> BatchNormalization layer name folded into it
+        Map<String, String> folded = new HashMap<>();
+
+        for (String name : new ArrayList<>(conf.getVertices().keySet())) {
+            GraphVertex vertex = conf.getVertices().get(name);
+            if (!(vertex instanceof LayerVertex) || ((LayerVertex) vertex).getPreProcessor() != null)
+                continue;
+
+            org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) vertex).getLayerConf().getLayer();
+
+            if (layer instanceof DropoutLayer) {
+                removeVertex(conf, name);
+                log.info("Removed dropout layer " + name);
+            } else if (layer instanceof BatchNormalization && isFoldable(conf, name)) {
+                String conv = conf.getVertexInputs().get(name).get(0);
+                folded.put(conv, name);
+                removeVertex(conf, name);
+                log.info("Folded batch normalization " + name + " into " + conv);
+            }
+        }
+
+        ComputationGraph optimized = new ComputationGraph(conf);
+        optimized.init();
+
+        for (Layer layer : optimized.getLayers()) {
+            String name = layer.conf().getLayer().getLayerName();
+            if (layer.numParams() == 0)
+                continue;
+
+            //copying by parameter key, flat setParams ordering differs between layer types
+            for (Map.Entry<String, INDArray> param : graph.getLayer(name).paramTable().entrySet())
+                layer.getParam(param.getKey()).assign(param.getValue());
+            if (folded.containsKey(name))
+                foldBatchNormalization(layer, graph.getLayer(folded.get(name)));
+        }
+
+        return optimized;
+    }
+
+    /**
+     * BatchNormalization with identity activation is foldable if its only input is a convolution with bias
+     * and identity activation, which output is not used anywhere else.
+     */
+    private static boolean isFoldable(ComputationGraphConfiguration conf, String bnName) {
+        BatchNormalization bn = (BatchNormalization) ((LayerVertex) conf.getVertices().get(bnName)).getLayerConf().getLayer();
+        List<String> inputs = conf.getVertexInputs().get(bnName);
+        if (bn.isLockGammaBeta() || inputs.size() != 1
+                || (bn.getActivationFn() != null && !(bn.getActivationFn() instanceof ActivationIdentity)))
+            return false;
+
+        GraphVertex input = conf.getVertices().get(inputs.get(0));
+        if (!(input instanceof LayerVertex))
+            return false;
+
+        org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) input).getLayerConf().getLayer();
+        boolean conv = layer.getClass() == ConvolutionLayer.class || layer.getClass() == SeparableConvolution2D.class;
+        if (!conv || !((ConvolutionLayer) layer).hasBias()
+                || !(((ConvolutionLayer) layer).getActivationFn() instanceof ActivationIdentity))
+            return false;
+
+        if (conf.getNetworkOutputs().contains(inputs.get(0)))
+            return false;
+        for (Map.Entry<String, List<String>> entry : conf.getVertexInputs().entrySet())
+            if (!entry.getKey().equals(bnName) && entry.getValue().contains(inputs.get(0)))
+                return false;
+
+        return true;
+    }
+
+    private static void foldBatchNormalization(Layer conv, Layer bn) {
+        BatchNormalization bnConf = (BatchNormalization) bn.conf().getLayer();
+
+        INDArray mean = bn.getParam(BatchNormalizationParamInitializer.GLOBAL_MEAN);
+        INDArray std;
+        if (bnConf.isUseLogStd()) {
+            //stored std already includes eps, std = 10^log10(sqrt(var + eps))
+            std = Transforms.pow(Nd4j.valueArrayOf(mean.shape(), 10.0, mean.dataType()),
+                    bn.getParam(BatchNormalizationParamInitializer.GLOBAL_LOG_STD));
+        } else
+            std = Transforms.sqrt(bn.getParam(BatchNormalizationParamInitializer.GLOBAL_VAR).add(bnConf.getEps()), false);
+
+        INDArray scale = bn.getParam(BatchNormalizationParamInitializer.GAMMA).div(std);
+        INDArray shift = bn.getParam(BatchNormalizationParamInitializer.BETA).sub(mean.mul(scale));
+
+        String weightKey = conv.conf().getLayer() instanceof SeparableConvolution2D
+                ? SeparableConvolutionParamInitializer.POINT_WISE_WEIGHT_KEY
+                : ConvolutionParamInitializer.WEIGHT_KEY;
+
+        //weights [nOut, nIn, kH, kW], scaling each output channel
+        INDArray weights = conv.getParam(weightKey);
+        weights.muli(scale.reshape(scale.length(), 1, 1, 1));
+
+        INDArray bias = conv.getParam(ConvolutionParamInitializer.BIAS_KEY);
+        bias.muli(scale.reshape(bias.shape())).addi(shift.reshape(bias.shape()));
+    }
+
+    /**
+     * Removes single input vertex, connecting its consumers to the vertex input.
+     */
+    private static void removeVertex(ComputationGraphConfiguration conf, String name) {
+        String input = conf.getVertexInputs().get(name).get(0);
+
+        conf.getVertices().remove(name);
+        conf.getVertexInputs().remove(name);
+
+        for (List<String> inputs : conf.getVertexInputs().values())
+            inputs.replaceAll(s -> s.equals(name) ? input : s);
+        conf.getNetworkOutputs().replaceAll(s -> s.equals(name) ? input : s);
+    }
+}
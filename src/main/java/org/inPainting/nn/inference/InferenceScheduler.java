@@ -0,0 +1,292 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control and priority scheduling of generator requests.
+ *
+ * Every priority class has its own bounded queue ordered by deadline (earliest first, requests without deadline last).
+ * Batches are taken from the highest priority class with waiting requests, except every bulkInterval-th batch,
+ * which is taken from the lower classes when they wait, so bulk work is slowed down but never starved.
+ * A batch contains requests of one class only.
+ *
+ * Requests are shed with {@link DeadlineExceededException} when admitted if the estimated wait (requests ahead of them
+ * times the measured service time per request) exceeds their deadline, and when dispatched if their deadline passed.
+ * Full class queues reject with RejectedExecutionException.
+ *
+ * @param <T> request type
+ */
+public class InferenceScheduler<T> {
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    public static final int DEFAULT_BULK_INTERVAL = 4;
+
+    /**
+     * Weight of the last batch in the service time average.
+     */
+    private static final double SERVICE_TIME_WEIGHT = 0.2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private final List<ClassQueue> queues = new ArrayList<>();
+    private final int workers;
+    @Getter
+    private final int bulkInterval;
+    private long batches;
+    private long sequence;
+
+    /**
+     * Average service time of one request on one worker, 0 until the first batch completes.
+     */
+    private volatile double serviceNanos;
+
+    /**
+     * @param capacity maximum number of waiting requests of every priority class
+     * @param workers number of workers taking batches, used by the wait estimate
+     * @param bulkInterval every bulkInterval-th batch is taken from lower priority classes, 0 for strict priority
+     */
+    public InferenceScheduler(int capacity, int workers, int bulkInterval) {
+        this.workers = Math.max(1, workers);
+        this.bulkInterval = bulkInterval;
+        for (Priority priority : Priority.values())
+            queues.add(new ClassQueue(capacity));
+    }
+
+    /**
+     * Queues the request or completes the result exceptionally when it is rejected or shed.
+     *
+     * @param deadlineNanos System.nanoTime() deadline of the request, 0 for none
+     * @return true when the request was queued
+     */
+    public boolean offer(T request, CompletableFuture<?> result, Priority priority, long deadlineNanos) {
+        ClassQueue queue = queues.get(priority.ordinal());
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            queue.submitted.incrementAndGet();
+            if (queue.entries.size() >= queue.capacity) {
+                queue.rejected.incrementAndGet();
+                result.completeExceptionally(new RejectedExecutionException(priority + " inference queue is full"));
+                return false;
+            }
+
+            if (deadlineNanos != 0) {
+                long wait = estimatedWaitNanos(priority);
+                if (deadlineNanos - now <= wait) {
+                    queue.shed.incrementAndGet();
+                    result.completeExceptionally(new DeadlineExceededException("Deadline can not be met, estimated wait "
+                            + TimeUnit.NANOSECONDS.toMillis(wait) + " ms"));
+                    return false;
+                }
+            }
+
+            queue.entries.add(new Entry<>(request, result, deadlineNanos, now, sequence++));
+            available.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a request, then collects requests of the same class until the batch has maxBatchSize requests,
+     * maxDelay elapsed or the earliest deadline of the batch is near. Expired requests are shed on the way.
+     *
+     * @return requests of one priority class, never empty
+     */
+    public List<T> take(int maxBatchSize, long maxDelay, TimeUnit unit) throws InterruptedException {
+        List<T> batch = new ArrayList<>(maxBatchSize);
+        lock.lockInterruptibly();
+        try {
+            while (batch.isEmpty()) {
+                ClassQueue queue;
+                while ((queue = next()) == null)
+                    available.await();
+
+                long deadline = System.nanoTime() + unit.toNanos(maxDelay);
+                while (batch.size() < maxBatchSize) {
+                    Entry<T> entry = queue.entries.poll();
+                    if (entry == null) {
+                        //an empty batch starts over, other workers took the waiting requests or they expired
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.isEmpty() || remaining <= 0)
+                            break;
+                        available.awaitNanos(remaining);
+                        continue;
+                    }
+
+                    long now = System.nanoTime();
+                    if (entry.deadline != 0 && entry.deadline - now <= 0) {
+                        queue.shed.incrementAndGet();
+                        entry.result.completeExceptionally(new DeadlineExceededException("Deadline passed after "
+                                + TimeUnit.NANOSECONDS.toMillis(now - entry.enqueued) + " ms in the queue"));
+                        continue;
+                    }
+                    queue.dispatched.incrementAndGet();
+                    queue.waitNanos.addAndGet(now - entry.enqueued);
+                    queue.maxWaitNanos.accumulateAndGet(now - entry.enqueued, Math::max);
+                    batch.add(entry.request);
+
+                    //no point in waiting longer than the most urgent request allows
+                    if (entry.deadline != 0)
+                        deadline = Math.min(deadline, now + (entry.deadline - now) / 2);
+                }
+            }
+            batches++;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records service time of a batch taken by {@link #take(int, long, TimeUnit)}, used by the admission estimate.
+     */
+    public void completed(int batchSize, long nanos) {
+        double perRequest = (double) nanos / Math.max(1, batchSize);
+        double current = serviceNanos;
+        serviceNanos = current == 0.0 ? perRequest : (1.0 - SERVICE_TIME_WEIGHT) * current + SERVICE_TIME_WEIGHT * perRequest;
+    }
+
+    /**
+     * Rejects all waiting requests.
+     */
+    public void clear(RuntimeException reason) {
+        lock.lock();
+        try {
+            for (ClassQueue queue : queues)
+                for (Entry<T> entry; (entry = queue.entries.poll()) != null; )
+                    entry.result.completeExceptionally(reason);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of waiting requests of all classes
+     */
+    public int size() {
+        lock.lock();
+        try {
+            int size = 0;
+            for (ClassQueue queue : queues)
+                size += queue.entries.size();
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return queue depth, wait times, shed and rejected counts of every priority class
+     */
+    public Map<String, Object> statistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            statistics.put("serviceMillisPerRequest", serviceNanos / 1e6);
+            for (Priority priority : Priority.values()) {
+                ClassQueue queue = queues.get(priority.ordinal());
+                Map<String, Object> classStatistics = new LinkedHashMap<>();
+                long dispatched = queue.dispatched.get();
+                classStatistics.put("queued", queue.entries.size());
+                classStatistics.put("capacity", queue.capacity);
+                classStatistics.put("submitted", queue.submitted.get());
+                classStatistics.put("dispatched", dispatched);
+                classStatistics.put("shed", queue.shed.get());
+                classStatistics.put("rejected", queue.rejected.get());
+                classStatistics.put("meanWaitMillis", dispatched == 0 ? 0.0 : queue.waitNanos.get() / 1e6 / dispatched);
+                classStatistics.put("maxWaitMillis", queue.maxWaitNanos.get() / 1e6);
+                statistics.put(priority.name().toLowerCase(), classStatistics);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return statistics;
+    }
+
+    /**
+     * @return queue of the next batch, null when all are empty, called with the lock held
+     */
+    private ClassQueue next() {
+        boolean lowerTurn = bulkInterval > 0 && (batches + 1) % bulkInterval == 0;
+        ClassQueue first = null;
+        for (ClassQueue queue : queues) {
+            if (queue.entries.isEmpty())
+                continue;
+            if (first == null) {
+                first = queue;
+                if (!lowerTurn)
+                    return first;
+            } else
+                return queue;
+        }
+        return first;
+    }
+
+    /**
+     * @return wait of a new request of the class, requests of the same and higher classes run before it
+     */
+    private long estimatedWaitNanos(Priority priority) {
+        int ahead = 0;
+        for (int i = 0; i <= priority.ordinal(); i++)
+            ahead += queues.get(i).entries.size();
+        return (long) (ahead * serviceNanos / workers);
+    }
+
+    private static class Entry<T> implements Comparable<Entry<T>> {
+        private final T request;
+        private final CompletableFuture<?> result;
+        private final long deadline;
+        private final long enqueued;
+        private final long sequence;
+
+        private Entry(T request, CompletableFuture<?> result, long deadline, long enqueued, long sequence) {
+            this.request = request;
+            this.result = result;
+            this.deadline = deadline;
+            this.enqueued = enqueued;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            if (deadline != other.deadline) {
+                if (deadline == 0)
+                    return 1;
+                if (other.deadline == 0)
+                    return -1;
+                return Long.compare(deadline - other.deadline, 0);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private class ClassQueue {
+        private final int capacity;
+        private final PriorityQueue<Entry<T>> entries = new PriorityQueue<>();
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private ClassQueue(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Inpainted image and the version of the model which produced it.
+ */
+@Getter
+public class InpaintingResult {
+
+    private final INDArray image;
+    private final String modelVersion;
+
+    public InpaintingResult(INDArray image, String modelVersion) {
+        this.image = image;
+        this.modelVersion = modelVersion;
+    }
+}
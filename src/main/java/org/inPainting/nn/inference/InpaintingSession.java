@@ -0,0 +1,410 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.Synchronized;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
+import org.deeplearning4j.nn.conf.layers.Upsampling2D;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental inpainting for interactive editing.
+ *
+ * Image is split into the same overlapping tiles as in {@link TiledInference} and generator output of every tile
+ * is cached. After a change of the mask or image only tiles containing changed pixels are evaluated again,
+ * and only the part of the output within the generator receptive field around the change is blended again,
+ * so the cost of an update depends on the size of the edit and not on the size of the image.
+ *
+ * Session holds its own copies of the image and mask, and of the tile inputs of every cached output.
+ */
+@Slf4j
+public class InpaintingSession {
+
+    private final ComputationGraph generator;
+    private final int batchSize;
+    private final int alignment;
+
+    /**
+     * Radius of the generator receptive field in pixels.
+     */
+    @Getter
+    private final int receptiveField;
+
+    private final INDArray image;
+    private final INDArray mask;
+    private final INDArray output;
+
+    private final Region[] tiles;
+    private final float[] tileWeights;
+    //generator output of every tile [3, h, w] in 'c' order, null for tiles without holes
+    private final float[][] cache;
+    //image and mask tiles the cached output was computed from, frames are compared with them
+    private final INDArray[] referenceImages;
+    private final INDArray[] referenceMasks;
+
+    /**
+     * Number of tiles evaluated by the last update.
+     */
+    @Getter
+    private int lastEvaluatedTiles;
+
+    public InpaintingSession(ComputationGraph generator, INDArray image, INDArray mask) {
+        this(generator, image, mask, TiledInference.DEFAULT_TILE_SIZE, TiledInference.DEFAULT_OVERLAP, TiledInference.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param image input image [1, 3, h, w]
+     * @param mask mask [1, 1, h, w], non zero values mark pixels to inpaint
+     * @param tileSize size of square tiles, multiple of the generator down sampling factor
+     * @param overlap overlap of neighbouring tiles in pixels
+     * @param batchSize number of tiles in one generator forward pass
+     */
+    public InpaintingSession(ComputationGraph generator, INDArray image, INDArray mask,
+                             int tileSize, int overlap, int batchSize) {
+        this.alignment = CroppedInference.downsamplingFactor(generator);
+        if (tileSize % alignment != 0)
+            throw new IllegalArgumentException("Tile size " + tileSize + " is not a multiple of " + alignment);
+        if (overlap < 0 || overlap >= tileSize)
+            throw new IllegalArgumentException("Overlap must be in [0, " + tileSize + "), got " + overlap);
+        if (image.size(0) != 1)
+            throw new IllegalArgumentException("Session supports single image, got batch of " + image.size(0));
+
+        this.generator = generator;
+        this.batchSize = Math.max(1, batchSize);
+        this.receptiveField = receptiveFieldRadius(generator);
+
+        this.image = image.dup('c');
+        this.mask = mask.dup('c');
+        this.output = image.dup('c');
+
+        int width = getWidth();
+        int height = getHeight();
+        int tileWidth = Math.min(tileSize, width);
+        int tileHeight = Math.min(tileSize, height);
+
+        List<Region> regions = new ArrayList<>();
+        for (int y : TiledInference.positions(height, tileHeight, overlap))
+            for (int x : TiledInference.positions(width, tileWidth, overlap))
+                regions.add(new Region(x, y, tileWidth, tileHeight));
+        this.tiles = regions.toArray(new Region[0]);
+        this.tileWeights = TiledInference.featherWeights(tileWidth, tileHeight, overlap);
+        this.cache = new float[tiles.length][];
+        this.referenceImages = new INDArray[tiles.length];
+        this.referenceMasks = new INDArray[tiles.length];
+
+        Region all = new Region(0, 0, width, height);
+        evaluate(all);
+        blend(all);
+    }
+
+    public int getWidth() {
+        return (int) image.size(3);
+    }
+
+    public int getHeight() {
+        return (int) image.size(2);
+    }
+
+    /**
+     * @return current inpainted image [1, 3, h, w], updated in place by the session
+     */
+    @Synchronized
+    public INDArray getOutput() {
+        return output;
+    }
+
+    /**
+     * Replaces part of the mask, e.g. after a brush stroke.
+     *
+     * @param region replaced region
+     * @param maskPart new mask of the region [1, 1, region height, region width]
+     * @return region of the output which was changed, null if the mask did not change
+     */
+    @Synchronized
+    public Region updateMask(Region region, INDArray maskPart) {
+        return update(mask, region, maskPart);
+    }
+
+    /**
+     * Replaces part of the input image.
+     *
+     * @param region replaced region
+     * @param imagePart new pixels of the region [1, 3, region height, region width]
+     * @return region of the output which was changed, null if the image did not change
+     */
+    @Synchronized
+    public Region updateImage(Region region, INDArray imagePart) {
+        return update(image, region, imagePart);
+    }
+
+    /**
+     * Replaces the whole image and mask, e.g. by the next video frame.
+     * Only tiles whose image pixels differ by more than tolerance, or whose mask changed, from the input
+     * their cached output was computed from are evaluated again, other tiles reuse their cached output.
+     * Slow changes accumulate against that input, so a tile is evaluated once the total drift exceeds tolerance.
+     * Pixels outside of the holes are always taken from the new image.
+     *
+     * @param nextImage new image [1, 3, h, w] of the session size
+     * @param nextMask new mask [1, 1, h, w]
+     * @param tolerance maximum absolute difference of pixel values of a reused tile, 0 for exact match
+     * @return current inpainted image [1, 3, h, w]
+     */
+    @Synchronized
+    public INDArray updateFrame(INDArray nextImage, INDArray nextMask, double tolerance) {
+        if (nextImage.size(2) != getHeight() || nextImage.size(3) != getWidth())
+            throw new IllegalArgumentException("Frame size " + nextImage.size(3) + "x" + nextImage.size(2)
+                    + " differs from session size " + getWidth() + "x" + getHeight());
+
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < tiles.length; i++) {
+            if (cache[i] == null) {
+                if (hasHoles(nextMask, tiles[i]))
+                    changed.add(i);
+                continue;
+            }
+            INDArray tileImage = nextImage.get(TiledInference.index(tiles[i]));
+            boolean maskChanged = !referenceMasks[i].equals(nextMask.get(TiledInference.index(tiles[i])));
+            if (maskChanged || Transforms.abs(referenceImages[i].sub(tileImage), false).maxNumber().doubleValue() > tolerance)
+                changed.add(i);
+        }
+
+        image.assign(nextImage);
+        mask.assign(nextMask);
+
+        lastEvaluatedTiles = 0;
+        List<Integer> pending = new ArrayList<>();
+        for (int i : changed) {
+            if (!hasHoles(mask, tiles[i])) {
+                clear(i);
+                continue;
+            }
+            pending.add(i);
+            if (pending.size() == batchSize) {
+                run(pending);
+                pending.clear();
+            }
+        }
+        if (!pending.isEmpty())
+            run(pending);
+
+        blend(new Region(0, 0, getWidth(), getHeight()));
+        log.debug("Session frame update, evaluated " + lastEvaluatedTiles + " of " + tiles.length + " tiles");
+        return output;
+    }
+
+    /**
+     * @return number of tiles of the image
+     */
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    private static boolean hasHoles(INDArray mask, Region tile) {
+        return mask.get(TiledInference.index(tile)).amaxNumber().doubleValue() != 0.0;
+    }
+
+    private Region update(INDArray target, Region region, INDArray part) {
+        INDArray current = target.get(TiledInference.index(region));
+        Region changed = changedRegion(current, part, region);
+        lastEvaluatedTiles = 0;
+        if (changed == null)
+            return null;
+
+        current.assign(part);
+
+        //outputs of tiles containing the change differ within the receptive field around the change
+        Region affected = evaluate(changed);
+        Region spread = new Region(changed.getX() - receptiveField, changed.getY() - receptiveField,
+                changed.getWidth() + 2 * receptiveField, changed.getHeight() + 2 * receptiveField);
+        affected = affected == null ? changed : affected.intersection(spread).union(changed);
+        affected = affected.intersection(new Region(0, 0, getWidth(), getHeight()));
+
+        blend(affected);
+        log.debug("Session update " + changed + ", evaluated " + lastEvaluatedTiles + " tiles, blended " + affected);
+        return affected;
+    }
+
+    /**
+     * Evaluates generator on all tiles intersecting the changed region.
+     *
+     * @return union of the evaluated tiles, null if no tile was evaluated
+     */
+    private Region evaluate(Region changed) {
+        List<Integer> pending = new ArrayList<>();
+        Region evaluated = null;
+
+        for (int i = 0; i < tiles.length; i++) {
+            if (!tiles[i].intersects(changed))
+                continue;
+
+            evaluated = evaluated == null ? tiles[i] : evaluated.union(tiles[i]);
+            if (mask.get(TiledInference.index(tiles[i])).amaxNumber().doubleValue() == 0.0) {
+                clear(i);
+                continue;
+            }
+
+            pending.add(i);
+            if (pending.size() == batchSize) {
+                run(pending);
+                pending.clear();
+            }
+        }
+        if (!pending.isEmpty())
+            run(pending);
+        return evaluated;
+    }
+
+    private void run(List<Integer> indices) {
+        INDArray images = Nd4j.concat(0, indices.stream()
+                .map(i -> image.get(TiledInference.index(tiles[i]))).toArray(INDArray[]::new));
+        INDArray masks = Nd4j.concat(0, indices.stream()
+                .map(i -> mask.get(TiledInference.index(tiles[i]))).toArray(INDArray[]::new));
+
+        int tileWidth = tiles[0].getWidth();
+        int tileHeight = tiles[0].getHeight();
+        INDArray generated = generator.outputSingle(TiledInference.pad(images, alignment), TiledInference.pad(masks, alignment));
+        if (generated.size(2) != tileHeight || generated.size(3) != tileWidth)
+            generated = generated.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                    NDArrayIndex.interval(0, tileHeight), NDArrayIndex.interval(0, tileWidth));
+
+        for (int n = 0; n < indices.size(); n++) {
+            int i = indices.get(n);
+            cache[i] = generated.get(NDArrayIndex.point(n)).dup('c').data().asFloat();
+            referenceImages[i] = image.get(TiledInference.index(tiles[i])).dup('c');
+            referenceMasks[i] = mask.get(TiledInference.index(tiles[i])).dup('c');
+        }
+        lastEvaluatedTiles += indices.size();
+    }
+
+    private void clear(int tile) {
+        cache[tile] = null;
+        referenceImages[tile] = null;
+        referenceMasks[tile] = null;
+    }
+
+    /**
+     * Blends cached tile outputs into the output image within the region.
+     */
+    private void blend(Region region) {
+        int width = region.getWidth();
+        int plane = width * region.getHeight();
+        float[] sum = new float[3 * plane];
+        float[] weights = new float[plane];
+
+        for (int i = 0; i < tiles.length; i++) {
+            Region common = tiles[i].intersection(region);
+            if (common == null || cache[i] == null)
+                continue;
+
+            Region tile = tiles[i];
+            int tilePlane = tile.getWidth() * tile.getHeight();
+            for (int y = common.getY(); y < common.getMaxY(); y++)
+                for (int x = common.getX(); x < common.getMaxX(); x++) {
+                    int t = (y - tile.getY()) * tile.getWidth() + (x - tile.getX());
+                    int p = (y - region.getY()) * width + (x - region.getX());
+                    float w = tileWeights[t];
+                    weights[p] += w;
+                    for (int c = 0; c < 3; c++)
+                        sum[c * plane + p] += w * cache[i][c * tilePlane + t];
+                }
+        }
+
+        float[] pixels = image.get(TiledInference.index(region)).dup('c').data().asFloat();
+        float[] holes = mask.get(TiledInference.index(region)).dup('c').data().asFloat();
+        for (int p = 0; p < plane; p++)
+            if (holes[p] != 0.0f && weights[p] > 0.0f)
+                for (int c = 0; c < 3; c++)
+                    pixels[c * plane + p] = sum[c * plane + p] / weights[p];
+
+        output.get(TiledInference.index(region)).assign(
+                Nd4j.create(pixels, new long[]{1, 3, region.getHeight(), width}, output.dataType()));
+    }
+
+    /**
+     * @return bounding box of pixels which differ between current and part, null if they are equal
+     */
+    private static Region changedRegion(INDArray current, INDArray part, Region region) {
+        int channels = (int) current.size(1);
+        int height = region.getHeight();
+        int width = region.getWidth();
+        float[] a = current.dup('c').data().asFloat();
+        float[] b = part.dup('c').data().asFloat();
+
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        for (int c = 0; c < channels; c++)
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++) {
+                    int p = (c * height + y) * width + x;
+                    if (a[p] != b[p]) {
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+
+        if (maxX < 0)
+            return null;
+        return new Region(region.getX() + minX, region.getY() + minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Receptive field radius of the network in input pixels, following convolutions, pooling and up sampling
+     * from the inputs to the outputs. Merge vertices take the largest radius of their inputs.
+     */
+    public static int receptiveFieldRadius(ComputationGraph network) {
+        ComputationGraphConfiguration conf = network.getConfiguration();
+        //vertex name -> {radius, distance of neighbouring pixels} in input pixels
+        Map<String, double[]> fields = new HashMap<>();
+        for (String input : conf.getNetworkInputs())
+            fields.put(input, new double[]{0.0, 1.0});
+
+        double radius = 0.0;
+        for (int index : network.topologicalSortOrder()) {
+            String name = network.getVertices()[index].getVertexName();
+            if (fields.containsKey(name))
+                continue;
+
+            double[] field = {0.0, 1.0};
+            for (String input : conf.getVertexInputs().get(name)) {
+                double[] in = fields.get(input);
+                field[0] = Math.max(field[0], in[0]);
+                field[1] = in[1];
+            }
+
+            GraphVertex vertex = conf.getVertices().get(name);
+            if (vertex instanceof LayerVertex) {
+                org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) vertex).getLayerConf().getLayer();
+                if (layer instanceof ConvolutionLayer) {
+                    ConvolutionLayer conv = (ConvolutionLayer) layer;
+                    field[0] += ((conv.getKernelSize()[0] - 1) * conv.getDilation()[0] + 1) / 2 * field[1];
+                    field[1] *= conv.getStride()[0];
+                } else if (layer instanceof SubsamplingLayer) {
+                    SubsamplingLayer pool = (SubsamplingLayer) layer;
+                    field[0] += pool.getKernelSize()[0] / 2 * field[1];
+                    field[1] *= pool.getStride()[0];
+                } else if (layer instanceof Upsampling2D) {
+                    field[1] /= ((Upsampling2D) layer).getSize()[0];
+                }
+            }
+
+            fields.put(name, field);
+            radius = Math.max(radius, field[0]);
+        }
+        return (int) Math.ceil(radius);
+    }
+}
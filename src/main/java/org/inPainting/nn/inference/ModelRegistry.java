@@ -0,0 +1,186 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.serialization.MappedModelSerializer;
+import org.inPainting.utils.ContentHash;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Versioned generators with zero-downtime replacement.
+ *
+ * New model is loaded on a background thread, every replica is warmed up by a forward pass of a synthetic input,
+ * then it atomically becomes the current version. Requests acquire the current version and release it when done,
+ * so running requests finish on the version they started with. Replaced version is released when its last request
+ * finishes. Version of a model file is the hash of its path, size and modification time.
+ */
+@Slf4j
+public class ModelRegistry implements AutoCloseable {
+
+    /**
+     * Number of kept descriptions of replaced versions.
+     */
+    private static final int HISTORY = 16;
+
+    @Getter
+    private final int replicas;
+    private final AtomicReference<ModelVersion> current = new AtomicReference<>();
+    private final Deque<ModelVersion> history = new ArrayDeque<>();
+    private final List<Consumer<ModelVersion>> listeners = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "model-registry-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param replicas number of generator replicas of every version
+     */
+    public ModelRegistry(int replicas) {
+        this.replicas = replicas;
+    }
+
+    /**
+     * Loads Gan network (".zip", or ".bin" by {@link MappedModelSerializer}) in the background, warms it up
+     * and makes its generator the current version. Loading the current version again does nothing.
+     *
+     * @return version which is current once it completes
+     */
+    public CompletableFuture<ModelVersion> load(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            String version = version(file);
+            ModelVersion active = current.get();
+            if (active != null && active.getVersion().equals(version))
+                return active;
+
+            try {
+                ComputationGraph network = file.getName().endsWith(".bin")
+                        ? MappedModelSerializer.restoreComputationGraph(file, false)
+                        : ComputationGraph.load(file, false);
+                return activate(version, file, new GAN(null, network).getGenerator());
+            } catch (IOException e) {
+                throw new IllegalStateException("Can not load model " + file, e);
+            }
+        }, loader);
+    }
+
+    /**
+     * Warms up the generator and makes it the current version, on the calling thread.
+     *
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     */
+    public ModelVersion register(String version, ComputationGraph generator) {
+        return activate(version, null, generator);
+    }
+
+    /**
+     * @return current version with a reference of the caller, which must call {@link ModelVersion#release()}
+     * @throws IllegalStateException when no model was loaded
+     */
+    public ModelVersion acquire() {
+        while (true) {
+            ModelVersion version = current.get();
+            if (version == null)
+                throw new IllegalStateException("No model loaded");
+            //fails only when the version was replaced and released meanwhile
+            if (version.acquire())
+                return version;
+        }
+    }
+
+    /**
+     * @return current version or null, without a reference
+     */
+    public ModelVersion getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * @param listener called with the new version after every replacement
+     */
+    public void addListener(Consumer<ModelVersion> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return descriptions of the current and recently replaced versions, newest first
+     */
+    public synchronized List<Map<String, Object>> versions() {
+        List<Map<String, Object>> versions = new ArrayList<>();
+        for (Iterator<ModelVersion> version = history.descendingIterator(); version.hasNext(); )
+            versions.add(version.next().describe());
+        return versions;
+    }
+
+    @Override
+    public void close() {
+        loader.shutdownNow();
+        ModelVersion version = current.getAndSet(null);
+        if (version != null)
+            version.retire();
+    }
+
+    private ModelVersion activate(String version, File source, ComputationGraph generator) {
+        long start = System.nanoTime();
+        GeneratorPool pool = new GeneratorPool(generator, replicas);
+        warmUp(pool);
+
+        ModelVersion next = new ModelVersion(version, source, pool);
+        ModelVersion previous = current.getAndSet(next);
+        synchronized (this) {
+            history.addLast(next);
+            while (history.size() > HISTORY)
+                history.removeFirst();
+        }
+        log.info("Model version " + version + " active after " + (System.nanoTime() - start) / 1000000 + " ms of loading and warm-up");
+
+        if (previous != null)
+            previous.retire();
+        listeners.forEach(listener -> listener.accept(next));
+        return next;
+    }
+
+    /**
+     * Runs every replica once, first forward pass allocates workspaces and is much slower than the others.
+     */
+    private static void warmUp(GeneratorPool pool) {
+        INDArray image = Nd4j.zeros(GAN._InputShape[0][0], GAN._InputShape[0][1], GAN._InputShape[0][2], GAN._InputShape[0][3]);
+        INDArray mask = Nd4j.ones(GAN._InputShape[1][0], GAN._InputShape[1][1], GAN._InputShape[1][2], GAN._InputShape[1][3]);
+        List<ComputationGraph> borrowed = new ArrayList<>();
+        try {
+            for (int i = 0; i < pool.getSize(); i++) {
+                ComputationGraph replica = pool.borrow();
+                borrowed.add(replica);
+                replica.outputSingle(image, mask);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Warm-up interrupted", e);
+        } finally {
+            borrowed.forEach(pool::release);
+        }
+    }
+
+    /**
+     * @return hash of the model file path, size and modification time
+     */
+    public static String version(File file) {
+        return ContentHash.hex((file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified())
+                .getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,107 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loaded generator of {@link ModelRegistry}, reference counted.
+ *
+ * Registry holds one reference while the version is current, every request holds one while it runs.
+ * When the version is replaced and its last request finishes, its replicas are released.
+ */
+@Slf4j
+public class ModelVersion {
+
+    @Getter
+    private final String version;
+    @Getter
+    private final File source;
+    @Getter
+    private final long loadedMillis;
+    @Getter
+    private volatile long retiredMillis;
+
+    private volatile GeneratorPool pool;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicLong requests = new AtomicLong();
+
+    ModelVersion(String version, File source, GeneratorPool pool) {
+        this.version = version;
+        this.source = source;
+        this.pool = pool;
+        this.loadedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return replicas of the generator, null when the version was released
+     */
+    public GeneratorPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return false when the version was already released
+     */
+    boolean acquire() {
+        for (int count; (count = references.get()) > 0; )
+            if (references.compareAndSet(count, count + 1)) {
+                requests.incrementAndGet();
+                return true;
+            }
+        return false;
+    }
+
+    /**
+     * Releases reference of a request taken by {@link ModelRegistry#acquire()}.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            GeneratorPool released = pool;
+            pool = null;
+            released.close();
+            log.info("Model version " + version + " released after " + requests.get() + " requests");
+        }
+    }
+
+    void retire() {
+        retiredMillis = System.currentTimeMillis();
+        release();
+    }
+
+    /**
+     * @return number of requests running on this version
+     */
+    public int inFlight() {
+        return Math.max(0, references.get() - (retiredMillis == 0 ? 1 : 0));
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public boolean isReleased() {
+        return pool == null;
+    }
+
+    /**
+     * @return description for monitoring
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("version", version);
+        description.put("source", source != null ? source.getPath() : null);
+        description.put("loaded", loadedMillis);
+        description.put("retired", retiredMillis == 0 ? null : retiredMillis);
+        description.put("released", isReleased());
+        description.put("requests", requests.get());
+        description.put("inFlight", inFlight());
+        return description;
+    }
+}
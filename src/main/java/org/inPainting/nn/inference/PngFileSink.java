@@ -0,0 +1,147 @@
+package org.inPainting.nn.inference;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Tile sink collecting the output in a temporary raw RGB file, {@link #writeTo(File)} then encodes it as PNG
+ * row by row. Memory holds one row, the image itself stays on disk.
+ */
+public class PngFileSink implements TiledInference.TileSink, AutoCloseable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final int width;
+    private final int height;
+    private final File raw;
+    private final RandomAccessFile pixels;
+
+    public PngFileSink(int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.raw = File.createTempFile("tiled-inference", ".rgb");
+        this.pixels = new RandomAccessFile(raw, "rw");
+        pixels.setLength(3L * width * height);
+    }
+
+    /**
+     * @param pixels image [1, 3, h, w] of the region with values in [0, 1]
+     */
+    @Override
+    public void write(Region region, INDArray pixels) {
+        int regionWidth = region.getWidth();
+        int plane = regionWidth * region.getHeight();
+        float[] values = pixels.dup('c').data().asFloat();
+        byte[] row = new byte[3 * regionWidth];
+        try {
+            for (int y = 0; y < region.getHeight(); y++) {
+                for (int x = 0; x < regionWidth; x++)
+                    for (int c = 0; c < 3; c++)
+                        row[3 * x + c] = (byte) Math.round(Math.min(1.0f, Math.max(0.0f, values[c * plane + y * regionWidth + x])) * 255.0f);
+                this.pixels.seek(3L * ((long) (region.getY() + y) * width + region.getX()));
+                this.pixels.write(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not write region " + region, e);
+        }
+    }
+
+    /**
+     * Encodes collected pixels as 8 bit RGB PNG, written to a temporary file renamed to output when complete.
+     */
+    public void writeTo(File output) throws IOException {
+        File temporary = new File(output.getAbsoluteFile().getParentFile(), output.getName() + ".tmp");
+        try (DataOutputStream png = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            png.write(SIGNATURE);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerData = new DataOutputStream(header);
+            headerData.writeInt(width);
+            headerData.writeInt(height);
+            headerData.write(new byte[]{8, 2, 0, 0, 0}); //8 bit, RGB, deflate, no filter method, no interlace
+            chunk(png, "IHDR", header.toByteArray(), header.size());
+
+            byte[] row = new byte[3 * width];
+            try (DeflaterOutputStream data = new DeflaterOutputStream(new ChunkOutputStream(png), new Deflater(6), CHUNK_SIZE)) {
+                pixels.seek(0);
+                for (int y = 0; y < height; y++) {
+                    pixels.readFully(row);
+                    data.write(0); //no filter
+                    data.write(row);
+                }
+            }
+            chunk(png, "IEND", new byte[0], 0);
+        }
+        Files.move(temporary.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        pixels.close();
+        Files.deleteIfExists(raw.toPath());
+    }
+
+    private static void chunk(DataOutputStream png, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        png.writeInt(length);
+        png.write(typeBytes);
+        png.write(data, 0, length);
+        png.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Splits compressed data into IDAT chunks, closing it does not close the PNG stream.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        private final DataOutputStream png;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int size;
+
+        private ChunkOutputStream(DataOutputStream png) {
+            this.png = png;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length)
+                flushChunk();
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length)
+                    flushChunk();
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (size > 0)
+                flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            chunk(png, "IDAT", buffer, size);
+            size = 0;
+        }
+    }
+}
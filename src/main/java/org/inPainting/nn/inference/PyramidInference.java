@@ -0,0 +1,141 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Coarse to fine inpainting of high resolution images.
+ *
+ * Image and mask are downscaled to fit the generator input, inpainted in one pass and the result is upsampled
+ * to fill the holes of the full resolution image, which gives the holes a global structure.
+ * Optional refinement pass runs {@link TiledInference} on the prefilled image, only tiles intersecting a hole
+ * are evaluated and a smaller overlap is enough as neighbouring tiles already start from the same content.
+ *
+ * Images which fit into one tile are inpainted directly.
+ */
+@Slf4j
+public class PyramidInference {
+
+    public static final int DEFAULT_REFINEMENT_OVERLAP = 16;
+
+    private final ComputationGraph generator;
+
+    @Getter
+    private final int tileSize;
+    @Getter
+    private final int refinementOverlap;
+    @Getter
+    private final boolean refine;
+
+    public PyramidInference(ComputationGraph generator) {
+        this(generator, TiledInference.DEFAULT_TILE_SIZE, DEFAULT_REFINEMENT_OVERLAP, true);
+    }
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param tileSize generator input size, coarse pass fits the image into it
+     * @param refinementOverlap overlap of the refinement tiles
+     * @param refine false to return the upsampled coarse result without the refinement pass
+     */
+    public PyramidInference(ComputationGraph generator, int tileSize, int refinementOverlap, boolean refine) {
+        this.generator = generator;
+        this.tileSize = tileSize;
+        this.refinementOverlap = refinementOverlap;
+        this.refine = refine;
+    }
+
+    /**
+     * @param image input image [1, 3, h, w]
+     * @param mask mask [1, 1, h, w], non zero values mark pixels to inpaint
+     * @return input image with holes filled by the generator
+     */
+    public INDArray inpaint(INDArray image, INDArray mask) {
+        int height = (int) image.size(2);
+        int width = (int) image.size(3);
+        TiledInference tiled = new TiledInference(generator, tileSize, refinementOverlap, TiledInference.DEFAULT_BATCH_SIZE);
+
+        if (height <= tileSize && width <= tileSize)
+            return tiled.inpaint(image, mask);
+
+        double scale = (double) tileSize / Math.max(height, width);
+        int coarseHeight = Math.max(1, (int) Math.round(height * scale));
+        int coarseWidth = Math.max(1, (int) Math.round(width * scale));
+
+        //any hole pixel inside the coarse pixel makes it a hole
+        INDArray coarseMask = downscale(mask, coarseHeight, coarseWidth).gt(0.0).castTo(mask.dataType());
+        INDArray coarse = tiled.inpaint(downscale(image, coarseHeight, coarseWidth), coarseMask);
+
+        INDArray hole = mask.neq(0.0).castTo(image.dataType());
+        INDArray prefilled = upscale(coarse, height, width).subi(image).muli(hole.broadcast(image.shape())).addi(image);
+        log.debug("Pyramid coarse pass " + coarseWidth + "x" + coarseHeight + " for " + width + "x" + height);
+
+        return refine ? tiled.inpaint(prefilled, mask) : prefilled;
+    }
+
+    /**
+     * Area averaging downscale of [1, c, h, w] array.
+     */
+    static INDArray downscale(INDArray array, int height, int width) {
+        int channels = (int) array.size(1);
+        int srcHeight = (int) array.size(2);
+        int srcWidth = (int) array.size(3);
+        float[] src = array.dup('c').data().asFloat();
+        float[] dst = new float[channels * height * width];
+
+        double sy = (double) srcHeight / height;
+        double sx = (double) srcWidth / width;
+        for (int y = 0; y < height; y++) {
+            int y0 = (int) Math.floor(y * sy);
+            int y1 = Math.max(y0 + 1, Math.min(srcHeight, (int) Math.ceil((y + 1) * sy)));
+            for (int x = 0; x < width; x++) {
+                int x0 = (int) Math.floor(x * sx);
+                int x1 = Math.max(x0 + 1, Math.min(srcWidth, (int) Math.ceil((x + 1) * sx)));
+                float count = (y1 - y0) * (x1 - x0);
+                for (int c = 0; c < channels; c++) {
+                    float sum = 0.0f;
+                    for (int yy = y0; yy < y1; yy++)
+                        for (int xx = x0; xx < x1; xx++)
+                            sum += src[(c * srcHeight + yy) * srcWidth + xx];
+                    dst[(c * height + y) * width + x] = sum / count;
+                }
+            }
+        }
+        return Nd4j.create(dst, new long[]{1, channels, height, width}, array.dataType());
+    }
+
+    /**
+     * Bilinear upscale of [1, c, h, w] array.
+     */
+    static INDArray upscale(INDArray array, int height, int width) {
+        int channels = (int) array.size(1);
+        int srcHeight = (int) array.size(2);
+        int srcWidth = (int) array.size(3);
+        float[] src = array.dup('c').data().asFloat();
+        float[] dst = new float[channels * height * width];
+
+        double sy = (double) srcHeight / height;
+        double sx = (double) srcWidth / width;
+        for (int y = 0; y < height; y++) {
+            double fy = Math.min(srcHeight - 1, Math.max(0.0, (y + 0.5) * sy - 0.5));
+            int y0 = (int) fy;
+            int y1 = Math.min(srcHeight - 1, y0 + 1);
+            float dy = (float) (fy - y0);
+            for (int x = 0; x < width; x++) {
+                double fx = Math.min(srcWidth - 1, Math.max(0.0, (x + 0.5) * sx - 0.5));
+                int x0 = (int) fx;
+                int x1 = Math.min(srcWidth - 1, x0 + 1);
+                float dx = (float) (fx - x0);
+                for (int c = 0; c < channels; c++) {
+                    int plane = c * srcHeight;
+                    float top = src[(plane + y0) * srcWidth + x0] * (1 - dx) + src[(plane + y0) * srcWidth + x1] * dx;
+                    float bottom = src[(plane + y1) * srcWidth + x0] * (1 - dx) + src[(plane + y1) * srcWidth + x1] * dx;
+                    dst[(c * height + y) * width + x] = top * (1 - dy) + bottom * dy;
+                }
+            }
+        }
+        return Nd4j.create(dst, new long[]{1, channels, height, width}, array.dataType());
+    }
+}
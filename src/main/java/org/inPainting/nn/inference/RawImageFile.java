@@ -0,0 +1,324 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Image file decoded once into a temporary file of 8 bit samples, regions are then read from that file.
+ *
+ * Decoding is a single forward pass of the ImageReader into a destination image which keeps only the last
+ * {@link #RING_ROWS} rows ({@link RowRing}), every row is converted and written to the temporary file as soon as
+ * the reader reports it. This works with the PNG and JPEG readers, which write rows through the data buffer.
+ * Other formats, and files whose rows are revisited (interlaced PNG, progressive JPEG, detected while decoding),
+ * are decoded in bands of {@link #FALLBACK_BAND_ROWS} rows instead, each band decoding the file from its start.
+ */
+class RawImageFile implements AutoCloseable {
+
+    static final int RING_ROWS = 16;
+    static final int FALLBACK_BAND_ROWS = 512;
+    private static final Set<String> SEQUENTIAL_FORMATS = new HashSet<>(Arrays.asList("png", "jpeg"));
+
+    @Getter
+    private final int width;
+    @Getter
+    private final int height;
+    /**
+     * 3 for RGB, 1 for brightness (maximum of RGB).
+     */
+    @Getter
+    private final int channels;
+
+    private final File raw;
+    private final RandomAccessFile samples;
+
+    /**
+     * @param file image file
+     * @param channels 3 to keep RGB, 1 to keep brightness of the pixels
+     */
+    RawImageFile(File file, int channels) throws IOException {
+        if (channels != 1 && channels != 3)
+            throw new IllegalArgumentException("Channels must be 1 or 3, got " + channels);
+        this.channels = channels;
+
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(stream, file);
+            try {
+                this.width = reader.getWidth(0);
+                this.height = reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        this.raw = File.createTempFile("tiled-inference", channels == 3 ? ".rgb" : ".gray");
+        this.samples = new RandomAccessFile(raw, "rw");
+        try {
+            samples.setLength((long) channels * width * height);
+            //the reader may have discarded the start of the stream, bands read it again
+            if (!decode(file, true))
+                decode(file, false);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return samples of the region [channels, h, w] in 'c' order with values in [0, 1]
+     */
+    float[] read(Region region) throws IOException {
+        int regionWidth = region.getWidth();
+        int plane = regionWidth * region.getHeight();
+        float[] values = new float[channels * plane];
+        byte[] row = new byte[channels * regionWidth];
+
+        for (int y = 0; y < region.getHeight(); y++) {
+            samples.seek((long) channels * ((long) (region.getY() + y) * width + region.getX()));
+            samples.readFully(row);
+            for (int x = 0; x < regionWidth; x++)
+                for (int c = 0; c < channels; c++)
+                    values[c * plane + y * regionWidth + x] = (row[channels * x + c] & 0xFF) / 255.0f;
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        samples.close();
+        Files.deleteIfExists(raw.toPath());
+    }
+
+    private boolean decode(File file, boolean sequentially) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(stream, file);
+            try {
+                if (sequentially)
+                    return decodeSequentially(reader);
+                decodeInBands(reader);
+                return true;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes the image in one pass keeping only the last rows in memory.
+     *
+     * @return false if the reader wrote rows out of order, nothing is then written
+     */
+    private boolean decodeSequentially(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        SampleModel sampleModel = type.getSampleModel(width, height);
+        int scanlineStride = scanlineStride(sampleModel);
+        if (scanlineStride <= 0 || !SEQUENTIAL_FORMATS.contains(reader.getFormatName().toLowerCase()))
+            return false;
+
+        RowRing ring = new RowRing(sampleModel.getDataType(), scanlineStride, height, banks(sampleModel));
+        ColorModel colorModel = type.getColorModel();
+        BufferedImage destination = new BufferedImage(colorModel,
+                new WritableRaster(sampleModel, ring, new Point(0, 0)) {
+                }, colorModel.isAlphaPremultiplied(), null);
+
+        int[] argb = new int[width];
+        byte[] row = new byte[channels * width];
+        IOException[] failure = new IOException[1];
+        reader.addIIOReadUpdateListener(new RowListener() {
+            @Override
+            public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int updateWidth,
+                                    int updateHeight, int periodX, int periodY, int[] bands) {
+                if (ring.outOfOrder || failure[0] != null)
+                    return;
+                for (int y = minY; y < minY + updateHeight * periodY; y += periodY) {
+                    if (periodX != 1 || minX != 0 || updateWidth != width || ring.flushed[y]) {
+                        //partial rows, e.g. passes of interlaced images
+                        ring.outOfOrder = true;
+                        return;
+                    }
+                    destination.getRGB(0, y, width, 1, argb, 0, width);
+                    ring.flushed[y] = true;
+                    try {
+                        writeRow(y, argb, row);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            }
+        });
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        reader.read(0, param);
+        reader.removeAllIIOReadUpdateListeners();
+
+        if (failure[0] != null)
+            throw failure[0];
+        if (ring.outOfOrder)
+            return false;
+        for (boolean flushed : ring.flushed)
+            if (!flushed)
+                return false;
+        return true;
+    }
+
+    /**
+     * Decodes the image by regions of rows, for readers which do not write rows in order.
+     */
+    private void decodeInBands(ImageReader reader) throws IOException {
+        int[] argb = new int[width];
+        byte[] row = new byte[channels * width];
+        for (int top = 0; top < height; top += FALLBACK_BAND_ROWS) {
+            int rows = Math.min(FALLBACK_BAND_ROWS, height - top);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, top, width, rows));
+            BufferedImage band = reader.read(0, param);
+            for (int y = 0; y < rows; y++) {
+                band.getRGB(0, y, width, 1, argb, 0, width);
+                writeRow(top + y, argb, row);
+            }
+        }
+    }
+
+    private void writeRow(int y, int[] argb, byte[] row) throws IOException {
+        for (int x = 0; x < width; x++) {
+            int r = (argb[x] >> 16) & 0xFF;
+            int g = (argb[x] >> 8) & 0xFF;
+            int b = argb[x] & 0xFF;
+            if (channels == 3) {
+                row[3 * x] = (byte) r;
+                row[3 * x + 1] = (byte) g;
+                row[3 * x + 2] = (byte) b;
+            } else
+                row[x] = (byte) Math.max(r, Math.max(g, b));
+        }
+        samples.seek((long) channels * y * width);
+        samples.write(row);
+    }
+
+    private static int scanlineStride(SampleModel sampleModel) {
+        if (sampleModel instanceof ComponentSampleModel)
+            return ((ComponentSampleModel) sampleModel).getScanlineStride();
+        if (sampleModel instanceof MultiPixelPackedSampleModel)
+            return ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+        if (sampleModel instanceof SinglePixelPackedSampleModel)
+            return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        return -1;
+    }
+
+    private static int banks(SampleModel sampleModel) {
+        if (!(sampleModel instanceof ComponentSampleModel))
+            return 1;
+        return Arrays.stream(((ComponentSampleModel) sampleModel).getBankIndices()).max().orElse(0) + 1;
+    }
+
+    private static ImageReader reader(ImageInputStream stream, File file) throws IOException {
+        if (stream == null)
+            throw new IOException("Can not open " + file);
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext())
+            throw new IOException("Unsupported image format " + file);
+        ImageReader reader = readers.next();
+        reader.setInput(stream, false, true);
+        return reader;
+    }
+
+    /**
+     * Data buffer of the decoding destination holding only the last {@link #RING_ROWS} rows of every bank.
+     * Writes to a row which was already written out, or which would evict a row not written out yet,
+     * mark the decoding as out of order and are ignored.
+     */
+    private static class RowRing extends DataBuffer {
+        private final int scanlineStride;
+        private final int[][] elements;
+        //row held by every slot of every bank, -1 for empty slots
+        private final int[][] rows;
+        private final boolean[] flushed;
+        private boolean outOfOrder;
+
+        private RowRing(int dataType, int scanlineStride, int height, int banks) {
+            super(dataType, scanlineStride * height, banks);
+            this.scanlineStride = scanlineStride;
+            this.elements = new int[banks][RING_ROWS * scanlineStride];
+            this.rows = new int[banks][RING_ROWS];
+            for (int[] bank : rows)
+                Arrays.fill(bank, -1);
+            this.flushed = new boolean[height];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int row = i / scanlineStride;
+            int slot = row % RING_ROWS;
+            if (rows[bank][slot] != row)
+                return 0;
+            return elements[bank][slot * scanlineStride + i % scanlineStride];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            int row = i / scanlineStride;
+            int slot = row % RING_ROWS;
+            if (outOfOrder)
+                return;
+            if (flushed[row]) {
+                outOfOrder = true;
+                return;
+            }
+            if (rows[bank][slot] != row) {
+                int evicted = rows[bank][slot];
+                if (evicted >= 0 && !flushed[evicted]) {
+                    outOfOrder = true;
+                    return;
+                }
+                Arrays.fill(elements[bank], slot * scanlineStride, (slot + 1) * scanlineStride, 0);
+                rows[bank][slot] = row;
+            }
+            elements[bank][slot * scanlineStride + i % scanlineStride] = value;
+        }
+    }
+
+    /**
+     * Update listener with empty methods except imageUpdate.
+     */
+    private abstract static class RowListener implements IIOReadUpdateListener {
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+                                    int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+
+/**
+ * Rectangular area of an image, in pixels.
+ */
+public final class Region {
+    @Getter
+    private final int x;
+    @Getter
+    private final int y;
+    @Getter
+    private final int width;
+    @Getter
+    private final int height;
+
+    public Region(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getMaxX() {
+        return x + width;
+    }
+
+    public int getMaxY() {
+        return y + height;
+    }
+
+    public long area() {
+        return (long) width * height;
+    }
+
+    public boolean intersects(Region other) {
+        return x < other.getMaxX() && other.x < getMaxX() && y < other.getMaxY() && other.y < getMaxY();
+    }
+
+    public Region union(Region other) {
+        int minX = Math.min(x, other.x);
+        int minY = Math.min(y, other.y);
+        return new Region(minX, minY, Math.max(getMaxX(), other.getMaxX()) - minX, Math.max(getMaxY(), other.getMaxY()) - minY);
+    }
+
+    /**
+     * @return common part of both regions, null if they do not intersect
+     */
+    public Region intersection(Region other) {
+        if (!intersects(other))
+            return null;
+        int minX = Math.max(x, other.x);
+        int minY = Math.max(y, other.y);
+        return new Region(minX, minY, Math.min(getMaxX(), other.getMaxX()) - minX, Math.min(getMaxY(), other.getMaxY()) - minY);
+    }
+
+    @Override
+    public String toString() {
+        return "Region[" + x + "," + y + " " + width + "x" + height + "]";
+    }
+}
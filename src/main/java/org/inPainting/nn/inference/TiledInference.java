@@ -0,0 +1,394 @@
+package org.inPainting.nn.inference;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.GAN;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Inpainting of images larger than the generator input.
+ *
+ * Image is split into overlapping tiles, tiles without holes are skipped and the others are run by the generator
+ * in batches. Overlapping outputs are blended with feathered weights (linear ramp over the overlap),
+ * pixels outside of the holes are taken from the input image.
+ *
+ * Image is processed in vertical stripes of a few tile columns, each stripe row by row of tiles, and only
+ * one row of tiles of one stripe is accumulated. Input of a row of tiles is read from the {@link TileSource}
+ * once and reused when the finished rows are passed to a {@link TileSink}, so memory of the blending does not
+ * depend on the image size. {@link #inpaint(File, File, File)} decodes the input once into temporary files
+ * read by regions and writes the output through a temporary file, {@link #inpaint(INDArray, INDArray)} holds
+ * the whole input and result in memory.
+ */
+@Slf4j
+public class TiledInference {
+
+    public static final int DEFAULT_TILE_SIZE = GAN._InputShape[0][2];
+    public static final int DEFAULT_OVERLAP = 32;
+    public static final int DEFAULT_BATCH_SIZE = 4;
+    public static final int DEFAULT_STRIPE_TILES = 4;
+
+    /**
+     * Provides image and mask of any region of the image.
+     */
+    public interface TileSource {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * @return image [1, 3, h, w] and mask [1, 1, h, w] of the region
+         */
+        INDArray[] read(Region region);
+    }
+
+    /**
+     * Receives finished parts of the output image, stripe by stripe from left to right,
+     * each stripe from top to bottom. Regions do not overlap and cover the whole image.
+     */
+    public interface TileSink {
+        void write(Region region, INDArray pixels);
+    }
+
+    private final ComputationGraph generator;
+
+    @Getter
+    private final int tileSize;
+    @Getter
+    private final int overlap;
+    @Getter
+    private final int batchSize;
+    /**
+     * Number of tile columns of a stripe, bounds the width of the accumulated band.
+     */
+    @Getter
+    private final int stripeTiles;
+
+    private final int alignment;
+
+    public TiledInference(ComputationGraph generator) {
+        this(generator, DEFAULT_TILE_SIZE, DEFAULT_OVERLAP, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param tileSize size of square tiles, multiple of the generator down sampling factor
+     * @param overlap overlap of neighbouring tiles in pixels
+     * @param batchSize number of tiles in one generator forward pass
+     */
+    public TiledInference(ComputationGraph generator, int tileSize, int overlap, int batchSize) {
+        this(generator, tileSize, overlap, batchSize, DEFAULT_STRIPE_TILES);
+    }
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param tileSize size of square tiles, multiple of the generator down sampling factor
+     * @param overlap overlap of neighbouring tiles in pixels
+     * @param batchSize number of tiles in one generator forward pass
+     * @param stripeTiles number of tile columns processed together, more columns evaluate fewer tiles twice
+     */
+    public TiledInference(ComputationGraph generator, int tileSize, int overlap, int batchSize, int stripeTiles) {
+        this.alignment = CroppedInference.downsamplingFactor(generator);
+        if (tileSize % alignment != 0)
+            throw new IllegalArgumentException("Tile size " + tileSize + " is not a multiple of " + alignment);
+        if (overlap < 0 || overlap >= tileSize)
+            throw new IllegalArgumentException("Overlap must be in [0, " + tileSize + "), got " + overlap);
+
+        this.generator = generator;
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        this.batchSize = Math.max(1, batchSize);
+        this.stripeTiles = Math.max(1, stripeTiles);
+    }
+
+    /**
+     * @param image input image [1, 3, h, w]
+     * @param mask mask [1, 1, h, w], non zero values mark pixels to inpaint
+     * @return input image with holes filled by the generator
+     */
+    public INDArray inpaint(INDArray image, INDArray mask) {
+        if (image.size(0) != 1)
+            throw new IllegalArgumentException("Tiled inference supports single image, got batch of " + image.size(0));
+
+        INDArray result = image.dup();
+        inpaint(new ArraySource(image, mask), (region, pixels) -> result.get(index(region)).assign(pixels));
+        return result;
+    }
+
+    /**
+     * Inpaints image file of any size with memory independent of the image size, image and mask are read
+     * by {@link ImageFileSource} and the result is written by {@link PngFileSink}.
+     *
+     * @param image input image file
+     * @param mask mask file of the same size, non zero pixels mark pixels to inpaint
+     * @param output output PNG file
+     */
+    public void inpaint(File image, File mask, File output) throws IOException {
+        try (ImageFileSource source = new ImageFileSource(image, mask);
+             PngFileSink sink = new PngFileSink(source.getWidth(), source.getHeight())) {
+            inpaint(source, sink);
+            sink.writeTo(output);
+        }
+    }
+
+    /**
+     * Columns are split into stripes of {@link #getStripeTiles()} tile columns, every stripe is processed
+     * top to bottom keeping one band of tiles of the stripe width. Tiles of neighbouring stripes overlapping
+     * the stripe are evaluated for both stripes, so no state is shared between stripes.
+     */
+    public void inpaint(TileSource source, TileSink sink) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int tileWidth = Math.min(tileSize, width);
+        int tileHeight = Math.min(tileSize, height);
+
+        int[] xs = positions(width, tileWidth, overlap);
+        int[] ys = positions(height, tileHeight, overlap);
+        float[] tileWeights = featherWeights(tileWidth, tileHeight, overlap);
+
+        int processed = 0;
+        for (int first = 0; first < xs.length; first += stripeTiles) {
+            int last = Math.min(first + stripeTiles, xs.length);
+            int ownedLeft = first == 0 ? 0 : xs[first];
+            int ownedRight = last == xs.length ? width : xs[last];
+            //every tile covering an owned column contributes to it
+            int[] stripe = Arrays.stream(xs).filter(x -> x < ownedRight && x + tileWidth > ownedLeft).toArray();
+
+            //weighted sum of generator outputs and sum of weights of the current row of tiles of the stripe
+            Band band = new Band(stripe[0], stripe[stripe.length - 1] + tileWidth - stripe[0], tileHeight, ownedLeft, ownedRight);
+            for (int row = 0; row < ys.length; row++) {
+                int y = ys[row];
+                if (row > 0) {
+                    band.emit(sink, y - band.top);
+                    band.shift(y);
+                }
+                band.read(source);
+
+                List<Region> regions = new ArrayList<>();
+                List<INDArray[]> tiles = new ArrayList<>();
+                for (int x : stripe) {
+                    Region region = new Region(x, y, tileWidth, tileHeight);
+                    INDArray[] tile = band.tile(region);
+                    if (tile[1].amaxNumber().doubleValue() == 0.0)
+                        continue;
+
+                    regions.add(region);
+                    tiles.add(tile);
+                    if (tiles.size() == batchSize) {
+                        run(regions, tiles, band, tileWeights);
+                        processed += tiles.size();
+                        regions.clear();
+                        tiles.clear();
+                    }
+                }
+                if (!tiles.isEmpty()) {
+                    run(regions, tiles, band, tileWeights);
+                    processed += tiles.size();
+                }
+            }
+            band.emit(sink, height - band.top);
+        }
+
+        log.debug("Tiled inference of " + processed + " from " + (xs.length * ys.length) + " tiles");
+    }
+
+    private void run(List<Region> regions, List<INDArray[]> tiles, Band band, float[] tileWeights) {
+        INDArray images = Nd4j.concat(0, tiles.stream().map(t -> t[0]).toArray(INDArray[]::new));
+        INDArray masks = Nd4j.concat(0, tiles.stream().map(t -> t[1]).toArray(INDArray[]::new));
+
+        int tileWidth = regions.get(0).getWidth();
+        int tileHeight = regions.get(0).getHeight();
+        INDArray generated = generator.outputSingle(pad(images, alignment), pad(masks, alignment));
+        if (generated.size(2) != tileHeight || generated.size(3) != tileWidth)
+            generated = generated.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                    NDArrayIndex.interval(0, tileHeight), NDArrayIndex.interval(0, tileWidth));
+
+        for (int i = 0; i < regions.size(); i++)
+            band.accumulate(regions.get(i), generated.get(NDArrayIndex.point(i)).dup('c').data().asFloat(), tileWeights);
+    }
+
+    /**
+     * Pads tiles and crops whose sizes are not multiples of the alignment with zeros, mask 0 in the padding.
+     */
+    static INDArray pad(INDArray array, int alignment) {
+        long height = array.size(2);
+        long width = array.size(3);
+        long alignedHeight = ((height + alignment - 1) / alignment) * alignment;
+        long alignedWidth = ((width + alignment - 1) / alignment) * alignment;
+        if (alignedHeight == height && alignedWidth == width)
+            return array;
+
+        INDArray padded = Nd4j.zeros(array.dataType(), array.size(0), array.size(1), alignedHeight, alignedWidth);
+        padded.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                NDArrayIndex.interval(0, height), NDArrayIndex.interval(0, width)).assign(array);
+        return padded;
+    }
+
+    /**
+     * @return start positions of tiles covering size, last tile ends at size
+     */
+    static int[] positions(int size, int tile, int overlap) {
+        if (size <= tile)
+            return new int[]{0};
+
+        int stride = tile - overlap;
+        List<Integer> positions = new ArrayList<>();
+        for (int p = 0; p + tile < size; p += stride)
+            positions.add(p);
+        positions.add(size - tile);
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Weight of every tile pixel, linearly growing from the tile border over the overlap.
+     */
+    static float[] featherWeights(int width, int height, int overlap) {
+        float[] weights = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            float wy = Math.min(1.0f, (Math.min(y, height - 1 - y) + 1.0f) / (overlap + 1.0f));
+            for (int x = 0; x < width; x++) {
+                float wx = Math.min(1.0f, (Math.min(x, width - 1 - x) + 1.0f) / (overlap + 1.0f));
+                weights[y * width + x] = wx * wy;
+            }
+        }
+        return weights;
+    }
+
+    static INDArrayIndex[] index(Region region) {
+        return new INDArrayIndex[]{
+                NDArrayIndex.all(),
+                NDArrayIndex.all(),
+                NDArrayIndex.interval(region.getY(), region.getMaxY()),
+                NDArrayIndex.interval(region.getX(), region.getMaxX())
+        };
+    }
+
+    /**
+     * Accumulated generator outputs of rows [top, top + height) and columns [left, left + width) of the image,
+     * columns [ownedLeft, ownedRight) are written to the sink. Holds the input of the same rows and columns.
+     */
+    private static class Band {
+        private final int left;
+        private final int width;
+        private final int height;
+        private final int ownedLeft;
+        private final int ownedRight;
+        private final float[] sum;
+        private final float[] weights;
+        private int top = 0;
+        //image and mask of the band, read for every row of tiles
+        private INDArray[] input;
+
+        private Band(int left, int width, int height, int ownedLeft, int ownedRight) {
+            this.left = left;
+            this.width = width;
+            this.height = height;
+            this.ownedLeft = ownedLeft;
+            this.ownedRight = ownedRight;
+            this.sum = new float[3 * height * width];
+            this.weights = new float[height * width];
+        }
+
+        private void read(TileSource source) {
+            input = source.read(new Region(left, top, width, height));
+        }
+
+        /**
+         * @return image and mask of the tile, views of the band input
+         */
+        private INDArray[] tile(Region region) {
+            Region local = new Region(region.getX() - left, region.getY() - top, region.getWidth(), region.getHeight());
+            return new INDArray[]{input[0].get(index(local)), input[1].get(index(local))};
+        }
+
+        private void accumulate(Region region, float[] generated, float[] tileWeights) {
+            int plane = region.getWidth() * region.getHeight();
+            for (int y = 0; y < region.getHeight(); y++) {
+                int bandRow = (region.getY() - top + y) * width + region.getX() - left;
+                for (int x = 0; x < region.getWidth(); x++) {
+                    float w = tileWeights[y * region.getWidth() + x];
+                    int p = bandRow + x;
+                    weights[p] += w;
+                    for (int c = 0; c < 3; c++)
+                        sum[c * height * width + p] += w * generated[c * plane + y * region.getWidth() + x];
+                }
+            }
+        }
+
+        /**
+         * Writes owned columns of the first rows of the band, holes are filled by blended generator outputs.
+         * Pixels outside of the holes are taken from the band input.
+         */
+        private void emit(TileSink sink, int rows) {
+            int ownedWidth = ownedRight - ownedLeft;
+            Region region = new Region(ownedLeft, top, ownedWidth, rows);
+            Region local = new Region(ownedLeft - left, 0, ownedWidth, rows);
+            float[] image = input[0].get(index(local)).dup('c').data().asFloat();
+            float[] mask = input[1].get(index(local)).dup('c').data().asFloat();
+
+            int plane = rows * ownedWidth;
+            for (int y = 0; y < rows; y++)
+                for (int x = 0; x < ownedWidth; x++) {
+                    int p = y * ownedWidth + x;
+                    int b = y * width + ownedLeft - left + x;
+                    if (mask[p] != 0.0f && weights[b] > 0.0f)
+                        for (int c = 0; c < 3; c++)
+                            image[c * plane + p] = sum[c * height * width + b] / weights[b];
+                }
+
+            sink.write(region, Nd4j.create(image, new long[]{1, 3, rows, ownedWidth}, input[0].dataType()));
+        }
+
+        /**
+         * Moves the band to start at row newTop, keeping accumulated overlapping rows.
+         */
+        private void shift(int newTop) {
+            int rows = newTop - top;
+            int kept = (height - rows) * width;
+            for (int c = 0; c < 3; c++) {
+                System.arraycopy(sum, c * height * width + rows * width, sum, c * height * width, kept);
+                Arrays.fill(sum, c * height * width + kept, (c + 1) * height * width, 0.0f);
+            }
+            System.arraycopy(weights, rows * width, weights, 0, kept);
+            Arrays.fill(weights, kept, height * width, 0.0f);
+            top = newTop;
+        }
+    }
+
+    /**
+     * Source reading regions of in memory image and mask.
+     */
+    public static class ArraySource implements TileSource {
+        private final INDArray image;
+        private final INDArray mask;
+
+        public ArraySource(INDArray image, INDArray mask) {
+            this.image = image;
+            this.mask = mask;
+        }
+
+        @Override
+        public int getWidth() {
+            return (int) image.size(3);
+        }
+
+        @Override
+        public int getHeight() {
+            return (int) image.size(2);
+        }
+
+        @Override
+        public INDArray[] read(Region region) {
+            return new INDArray[]{image.get(index(region)), mask.get(index(region))};
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.inPainting.nn.profiling;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.api.layers.IOutputLayer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.layers.ConvolutionLayer;
+import org.deeplearning4j.nn.conf.layers.Upsampling2D;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.deeplearning4j.nn.graph.vertex.VertexIndices;
+import org.deeplearning4j.nn.layers.FrozenLayerWithBackprop;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.optimize.api.BaseTrainingListener;
+import org.nd4j.common.primitives.Pair;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Wall time and allocated bytes of forward and backward pass of every vertex of a graph.
+ *
+ * Attached as a training listener, it skips first iterations (workspace allocation, JIT) and then after each of
+ * the profiled iterations replays the step vertex by vertex in topological order on the same inputs and labels,
+ * timing every doForward and doBackward. Replay runs on a replica of the network holding a copy of the current
+ * parameters, on a separate thread with its own random generator, so layer states, gradients and dropout
+ * randomness of the trained network are untouched and profiling does not change the training run.
+ *
+ * Allocated bytes are bytes of the arrays produced by the vertex: activations in forward, epsilons of its inputs
+ * in backward. Replay runs without workspaces, so each of them is a new allocation, and the measured times
+ * include allocation costs a training step with workspaces does not have; compare vertices with each other rather
+ * than with the step time. Gradients are written into the preallocated gradient view and are not counted.
+ *
+ * Replay roughly doubles the cost of profiled iterations only, other iterations just increment a counter.
+ * Once the window is over, report sorted by total time is written to [directory]/[name]-layers.txt and .json.
+ */
+@Slf4j
+public class LayerProfiler extends BaseTrainingListener {
+
+    private final String name;
+    private final int skip;
+    private final int iterations;
+    private final File directory;
+
+    private final Map<String, VertexProfile> profiles = new LinkedHashMap<>();
+    private final ExecutorService replay = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "layer-profiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //copy of the profiled network, parameters are refreshed before every replay
+    private ComputationGraph replica;
+    private int seen;
+    @Getter
+    private int profiled;
+
+    /**
+     * @param name name of the graph used in the report file names, e.g. "network" or "discriminator"
+     * @param skip number of iterations before the window
+     * @param iterations number of profiled iterations
+     * @param directory directory of the reports
+     */
+    public LayerProfiler(String name, int skip, int iterations, File directory) {
+        this.name = name;
+        this.skip = skip;
+        this.iterations = iterations;
+        this.directory = directory;
+    }
+
+    @Override
+    public void iterationDone(Model model, int iteration, int epoch) {
+        if (!(model instanceof ComputationGraph) || profiled >= iterations || ++seen <= skip)
+            return;
+
+        ComputationGraph graph = (ComputationGraph) model;
+        INDArray[] labels = labels(graph);
+        if (graph.getInputs() == null || labels == null)
+            return;
+
+        INDArray[] inputs;
+        try (MemoryWorkspace ignored = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            inputs = detach(graph.getInputs());
+            labels = detach(labels);
+            if (replica == null) {
+                replica = graph.clone();
+                replica.initGradientsView();
+            } else
+                replica.params().assign(graph.params());
+        }
+
+        ComputationGraph target = replica;
+        INDArray[] replayLabels = labels;
+        try {
+            replay.submit(() -> profile(target, inputs, replayLabels)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            log.error("Layer profile of " + name + " failed", e.getCause());
+            profiled = iterations;
+        }
+
+        if (profiled == iterations) {
+            replay.shutdown();
+            replica = null;
+            try {
+                writeReport();
+            } catch (IOException e) {
+                log.error("Can not write layer profile of " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Runs forward and backward pass vertex by vertex and adds the measurements to the profile.
+     * Layer states and gradients of the graph are overwritten, pass a replica of a trained network
+     * with initialized gradient view (initGradientsView).
+     *
+     * @param inputs graph inputs
+     * @param labels labels of the output layers
+     */
+    public void profile(ComputationGraph graph, INDArray[] inputs, INDArray[] labels) {
+        ComputationGraphConfiguration conf = graph.getConfiguration();
+        GraphVertex[] vertices = graph.getVertices();
+        int[] order = graph.topologicalSortOrder();
+        LayerWorkspaceMgr workspaceMgr = LayerWorkspaceMgr.noWorkspaces();
+
+        for (int index : order) {
+            GraphVertex vertex = vertices[index];
+            INDArray output;
+            if (vertex.isInputVertex()) {
+                output = inputs[conf.getNetworkInputs().indexOf(vertex.getVertexName())];
+            } else {
+                long start = System.nanoTime();
+                output = vertex.doForward(true, workspaceMgr);
+                profile(conf, vertex).addForward(System.nanoTime() - start, bytes(output), output.shape());
+            }
+
+            VertexIndices[] outputVertices = vertex.getOutputVertices();
+            if (outputVertices != null)
+                for (VertexIndices next : outputVertices)
+                    vertices[next.getVertexIndex()].setInput(next.getVertexEdgeNumber(), output, workspaceMgr);
+        }
+
+        for (int i = 0; i < labels.length; i++) {
+            Layer layer = vertices[indexOf(vertices, conf.getNetworkOutputs().get(i))].getLayer();
+            outputLayer(layer).setLabels(labels[i]);
+        }
+
+        INDArray[] epsilons = new INDArray[vertices.length];
+        for (int i = order.length - 1; i >= 0; i--) {
+            GraphVertex vertex = vertices[order[i]];
+            if (vertex.isInputVertex() || (!vertex.isOutputVertex() && epsilons[order[i]] == null))
+                continue;
+            if (!vertex.isOutputVertex())
+                vertex.setEpsilon(epsilons[order[i]]);
+
+            long start = System.nanoTime();
+            Pair<Gradient, INDArray[]> result = vertex.doBackward(false, workspaceMgr);
+            long nanos = System.nanoTime() - start;
+
+            long bytes = 0;
+            INDArray[] inputEpsilons = result.getSecond();
+            VertexIndices[] inputVertices = vertex.getInputVertices();
+            if (inputEpsilons != null)
+                for (int j = 0; j < inputEpsilons.length; j++) {
+                    if (inputEpsilons[j] == null)
+                        continue;
+                    bytes += bytes(inputEpsilons[j]);
+                    int previous = inputVertices[j].getVertexIndex();
+                    //vertex feeding several others receives the sum of their epsilons
+                    epsilons[previous] = epsilons[previous] == null ? inputEpsilons[j] : epsilons[previous].add(inputEpsilons[j]);
+                }
+            profile(conf, vertex).addBackward(nanos, bytes);
+        }
+        profiled++;
+    }
+
+    /**
+     * @return profiles sorted by total time, slowest first
+     */
+    public List<VertexProfile> sorted() {
+        List<VertexProfile> sorted = new ArrayList<>(profiles.values());
+        sorted.sort(Comparator.comparingLong(VertexProfile::getTotalNanos).reversed());
+        return sorted;
+    }
+
+    /**
+     * Writes [directory]/[name]-layers.txt and [name]-layers.json.
+     */
+    public void writeReport() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can not create " + directory);
+
+        List<VertexProfile> sorted = sorted();
+        long total = sorted.stream().mapToLong(VertexProfile::getTotalNanos).sum();
+        int count = Math.max(profiled, 1);
+
+        File text = new File(directory, name + "-layers.txt");
+        try (PrintWriter writer = new PrintWriter(text, StandardCharsets.UTF_8.name())) {
+            writer.println("Layer profile of " + name + ", " + profiled + " iterations, per iteration averages");
+            writer.println(String.format("%-24s %-40s %10s %10s %7s %10s %10s  %s",
+                    "vertex", "type", "fwd ms", "bwd ms", "share", "fwd MB", "bwd MB", "output"));
+            for (VertexProfile profile : sorted)
+                writer.println(String.format("%-24s %-40s %10.3f %10.3f %6.1f%% %10.2f %10.2f  %s",
+                        profile.getVertex(), profile.getType(),
+                        profile.getForwardNanos() / 1e6 / count, profile.getBackwardNanos() / 1e6 / count,
+                        total == 0 ? 0 : 100.0 * profile.getTotalNanos() / total,
+                        profile.getForwardBytes() / 1048576.0 / count, profile.getBackwardBytes() / 1048576.0 / count,
+                        Arrays.toString(profile.getOutputShape())));
+            writer.println(String.format("%-65s %10.3f ms", "total", total / 1e6 / count));
+        }
+
+        List<Map<String, Object>> json = new ArrayList<>();
+        for (VertexProfile profile : sorted)
+            json.add(profile.describe(count, total));
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("graph", name);
+        report.put("iterations", profiled);
+        report.put("totalNanosPerIteration", total / count);
+        report.put("vertices", json);
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(directory, name + "-layers.json"), report);
+
+        log.info("Layer profile of " + name + " written to " + text.getAbsolutePath());
+    }
+
+    private static INDArray[] detach(INDArray[] arrays) {
+        INDArray[] copies = new INDArray[arrays.length];
+        for (int i = 0; i < arrays.length; i++)
+            copies[i] = arrays[i] == null ? null : arrays[i].dup();
+        return copies;
+    }
+
+    private VertexProfile profile(ComputationGraphConfiguration conf, GraphVertex vertex) {
+        return profiles.computeIfAbsent(vertex.getVertexName(), vertexName -> new VertexProfile(vertexName, type(conf, vertexName)));
+    }
+
+    /**
+     * @return labels of the output layers, set by the last fit, or null if there are none
+     */
+    private static INDArray[] labels(ComputationGraph graph) {
+        List<String> outputs = graph.getConfiguration().getNetworkOutputs();
+        INDArray[] labels = new INDArray[outputs.size()];
+        for (int i = 0; i < labels.length; i++) {
+            Layer layer = graph.getLayer(outputs.get(i));
+            if (layer == null || outputLayer(layer).getLabels() == null)
+                return null;
+            labels[i] = outputLayer(layer).getLabels();
+        }
+        return labels;
+    }
+
+    private static IOutputLayer outputLayer(Layer layer) {
+        if (layer instanceof FrozenLayerWithBackprop)
+            layer = ((FrozenLayerWithBackprop) layer).getInsideLayer();
+        return (IOutputLayer) layer;
+    }
+
+    private static int indexOf(GraphVertex[] vertices, String name) {
+        for (GraphVertex vertex : vertices)
+            if (vertex.getVertexName().equals(name))
+                return vertex.getVertexIndex();
+        throw new IllegalArgumentException("No vertex " + name);
+    }
+
+    /**
+     * @return layer or vertex class with kernel and channels of convolutions
+     */
+    private static String type(ComputationGraphConfiguration conf, String vertexName) {
+        org.deeplearning4j.nn.conf.graph.GraphVertex vertex = conf.getVertices().get(vertexName);
+        if (!(vertex instanceof LayerVertex))
+            return vertex.getClass().getSimpleName();
+
+        org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) vertex).getLayerConf().getLayer();
+        if (layer instanceof org.deeplearning4j.nn.conf.layers.misc.FrozenLayerWithBackprop)
+            layer = ((org.deeplearning4j.nn.conf.layers.misc.FrozenLayerWithBackprop) layer).getUnderlying();
+        String type = layer.getClass().getSimpleName();
+        if (layer instanceof ConvolutionLayer) {
+            ConvolutionLayer conv = (ConvolutionLayer) layer;
+            type += " " + conv.getNIn() + "->" + conv.getNOut() + " " + conv.getKernelSize()[0] + "x" + conv.getKernelSize()[1]
+                    + "/" + conv.getStride()[0];
+        } else if (layer instanceof Upsampling2D)
+            type += " x" + ((Upsampling2D) layer).getSize()[0];
+        return type;
+    }
+
+    private static long bytes(INDArray array) {
+        return array == null ? 0 : array.length() * array.dataType().width();
+    }
+
+    /**
+     * Sums of a single vertex over the profiled iterations.
+     */
+    @Getter
+    public static class VertexProfile {
+        private final String vertex;
+        private final String type;
+        private long forwardNanos;
+        private long backwardNanos;
+        private long forwardBytes;
+        private long backwardBytes;
+        private long[] outputShape;
+
+        VertexProfile(String vertex, String type) {
+            this.vertex = vertex;
+            this.type = type;
+        }
+
+        void addForward(long nanos, long bytes, long[] shape) {
+            forwardNanos += nanos;
+            forwardBytes += bytes;
+            outputShape = shape;
+        }
+
+        void addBackward(long nanos, long bytes) {
+            backwardNanos += nanos;
+            backwardBytes += bytes;
+        }
+
+        public long getTotalNanos() {
+            return forwardNanos + backwardNanos;
+        }
+
+        /**
+         * @param iterations number of profiled iterations
+         * @param graphNanos total time of all vertices
+         */
+        Map<String, Object> describe(int iterations, long graphNanos) {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("vertex", vertex);
+            description.put("type", type);
+            description.put("forwardNanos", forwardNanos / iterations);
+            description.put("backwardNanos", backwardNanos / iterations);
+            description.put("share", graphNanos == 0 ? 0 : (double) getTotalNanos() / graphNanos);
+            description.put("forwardBytes", forwardBytes / iterations);
+            description.put("backwardBytes", backwardBytes / iterations);
+            description.put("outputShape", outputShape);
+            return description;
+        }
+    }
+}
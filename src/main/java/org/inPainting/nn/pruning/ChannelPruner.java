@@ -0,0 +1,270 @@
+package org.inPainting.nn.pruning;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.layers.*;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.ConvolutionParamInitializer;
+import org.inPainting.nn.GAN;
+import org.inPainting.nn.dataSets.ImageDataSetIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.indexing.SpecifiedIndex;
+
+import java.util.*;
+
+/**
+ * Structured pruning of convolution output channels (filters).
+ *
+ * A convolution is prunable if its output reaches only other ConvolutionLayers, directly or through
+ * channel preserving layers (dropout, pooling, up sampling, activation, batch normalization).
+ * In the default U-net generator (depth 4) these are convX-1 of every level, conv5-2 to conv8-2 (through
+ * up sampling upX-1 into the upX-2 convolution, conv5-2 also through drop5), conv9-2 and conv9-3;
+ * {@link #prunableLayers(ComputationGraphConfiguration)} finds them in any graph.
+ * Outputs used by merge vertices (skip connections) are kept.
+ *
+ * Removed filters are physically removed: returned graph has smaller nOut of the pruned layers,
+ * smaller nIn of their consumers and its own copy of the remaining parameters.
+ */
+@Slf4j
+public final class ChannelPruner {
+
+    public static final int DEFAULT_RANKING_SAMPLES = 16;
+
+    private ChannelPruner() {
+    }
+
+    /**
+     * @param conf graph configuration
+     * @return names of convolutions which output channels can be removed
+     */
+    public static List<String> prunableLayers(ComputationGraphConfiguration conf) {
+        List<String> layers = new ArrayList<>();
+        for (String name : conf.getVertices().keySet())
+            if (isPrunable(conf, name, new ArrayList<>(), new ArrayList<>()))
+                layers.add(name);
+        return layers;
+    }
+
+    /**
+     * Ranks filters by L1 norm of their weights.
+     *
+     * @param graph network
+     * @param layers prunable layers
+     * @return layer name -> score of every output channel [nOut]
+     */
+    public static Map<String, INDArray> magnitudeScores(ComputationGraph graph, Collection<String> layers) {
+        Map<String, INDArray> scores = new LinkedHashMap<>();
+        for (String name : layers)
+            scores.put(name, graph.getLayer(name).getParam(ConvolutionParamInitializer.WEIGHT_KEY).norm1(1, 2, 3));
+        return scores;
+    }
+
+    /**
+     * @param generator generator network, e.g. GAN.getGenerator()
+     * @param layers prunable layers
+     * @param dataSet training set, samples are drawn by nextRandom()
+     * @param samples number of samples
+     * @return layer name -> score of every output channel [nOut]
+     * @see #taylorScores(ComputationGraph, Collection, List)
+     */
+    public static Map<String, INDArray> taylorScores(ComputationGraph generator, Collection<String> layers,
+                                                     ImageDataSetIterator dataSet, int samples) {
+        List<MultiDataSet> data = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++)
+            data.add(dataSet.nextRandom());
+        return taylorScores(generator, layers, data);
+    }
+
+    /**
+     * Ranks filters by their contribution to the generator loss, first order Taylor estimate of the loss change
+     * after removing the filter: (sum of w * dL/dw over the filter)^2, summed over the samples.
+     *
+     * @param generator generator network, e.g. GAN.getGenerator()
+     * @param layers prunable layers
+     * @param samples image and mask as features, expected image as first label
+     * @return layer name -> score of every output channel [nOut]
+     */
+    public static Map<String, INDArray> taylorScores(ComputationGraph generator, Collection<String> layers,
+                                                     List<MultiDataSet> samples) {
+        Map<String, INDArray> scores = new LinkedHashMap<>();
+        for (MultiDataSet sample : samples) {
+            generator.setInputs(sample.getFeatures());
+            generator.setLabels(sample.getLabels(0));
+            generator.computeGradientAndScore();
+
+            for (String name : layers) {
+                INDArray weights = generator.getLayer(name).getParam(ConvolutionParamInitializer.WEIGHT_KEY);
+                INDArray gradient = generator.gradient().getGradientFor(name + "_" + ConvolutionParamInitializer.WEIGHT_KEY);
+
+                INDArray contribution = weights.mul(gradient).sum(1, 2, 3);
+                scores.merge(name, contribution.muli(contribution), INDArray::addi);
+            }
+        }
+        generator.clearLayersStates();
+        return scores;
+    }
+
+    /**
+     * Prunes generator layers of the Gan network, the discriminator is copied.
+     * Returned Gan can be fine-tuned by {@link GAN#fit(MultiDataSet, boolean)}.
+     *
+     * @param gan trained Gan
+     * @param scores layer name -> score of every output channel, layers to prune
+     * @param sparsity fraction of channels removed from every layer
+     * @return new Gan with pruned network
+     */
+    public static GAN prune(GAN gan, Map<String, INDArray> scores, double sparsity) {
+        ComputationGraph discriminator = gan.getDiscriminator() != null ? gan.getDiscriminator().clone() : null;
+        return new GAN(discriminator, prune(gan.getNetwork(), scores, sparsity));
+    }
+
+    /**
+     * @param graph trained network
+     * @param scores layer name -> score of every output channel, layers to prune
+     * @param sparsity fraction of channels removed from every layer, lowest scored channels are removed
+     * @return new dense network without removed channels
+     */
+    public static ComputationGraph prune(ComputationGraph graph, Map<String, INDArray> scores, double sparsity) {
+        if (sparsity < 0.0 || sparsity >= 1.0)
+            throw new IllegalArgumentException("Sparsity must be in [0, 1), got " + sparsity);
+
+        ComputationGraphConfiguration conf = graph.getConfiguration().clone();
+
+        //layer name -> kept channels of its output or input
+        Map<String, int[]> outputChannels = new HashMap<>();
+        Map<String, int[]> inputChannels = new HashMap<>();
+
+        for (Map.Entry<String, INDArray> entry : scores.entrySet()) {
+            String name = entry.getKey();
+            List<String> passThrough = new ArrayList<>();
+            List<String> consumers = new ArrayList<>();
+            if (!isPrunable(conf, name, passThrough, consumers))
+                throw new IllegalArgumentException("Output channels of layer " + name + " can not be pruned");
+
+            int[] kept = keptChannels(entry.getValue(), sparsity);
+            ((FeedForwardLayer) layerConf(conf, name)).setNOut(kept.length);
+            outputChannels.put(name, kept);
+
+            for (String vertex : passThrough) {
+                org.deeplearning4j.nn.conf.layers.Layer layer = layerConf(conf, vertex);
+                if (layer instanceof FeedForwardLayer) {
+                    ((FeedForwardLayer) layer).setNIn(kept.length);
+                    ((FeedForwardLayer) layer).setNOut(kept.length);
+                }
+                outputChannels.put(vertex, kept);
+            }
+            for (String vertex : consumers) {
+                ((FeedForwardLayer) layerConf(conf, vertex)).setNIn(kept.length);
+                inputChannels.put(vertex, kept);
+            }
+            log.info("Pruned " + name + " to " + kept.length + " of " + entry.getValue().length() + " channels");
+        }
+
+        ComputationGraph pruned = new ComputationGraph(conf);
+        pruned.init();
+
+        for (Layer layer : pruned.getLayers()) {
+            String name = layer.conf().getLayer().getLayerName();
+            if (layer.numParams() == 0)
+                continue;
+
+            //copying by parameter key, flat setParams ordering differs between layer types
+            for (Map.Entry<String, INDArray> param : graph.getLayer(name).paramTable().entrySet()) {
+                INDArray value = param.getValue();
+                if (outputChannels.containsKey(name))
+                    value = select(value, value.rank() == 4 ? 0 : value.rank() - 1, outputChannels.get(name));
+                if (inputChannels.containsKey(name) && param.getKey().equals(ConvolutionParamInitializer.WEIGHT_KEY))
+                    value = select(value, 1, inputChannels.get(name));
+
+                INDArray target = layer.getParam(param.getKey());
+                target.assign(value.reshape(target.shape()));
+            }
+        }
+
+        log.info("Pruned network has " + pruned.numParams() + " of " + graph.numParams() + " parameters");
+        return pruned;
+    }
+
+    /**
+     * Follows the output of the layer through channel preserving layers.
+     *
+     * @param passThrough filled with channel preserving layers on the way
+     * @param consumers filled with convolutions consuming the output
+     * @return true if the output reaches only convolutions
+     */
+    private static boolean isPrunable(ComputationGraphConfiguration conf, String name,
+                                      List<String> passThrough, List<String> consumers) {
+        GraphVertex vertex = conf.getVertices().get(name);
+        if (!(vertex instanceof LayerVertex) || ((LayerVertex) vertex).getPreProcessor() != null)
+            return false;
+
+        org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) vertex).getLayerConf().getLayer();
+        if (layer.getClass() != ConvolutionLayer.class || ((ConvolutionLayer) layer).getNOut() <= 1)
+            return false;
+
+        return followChannels(conf, name, passThrough, consumers) && !consumers.isEmpty();
+    }
+
+    private static boolean followChannels(ComputationGraphConfiguration conf, String name,
+                                          List<String> passThrough, List<String> consumers) {
+        if (conf.getNetworkOutputs().contains(name))
+            return false;
+
+        for (Map.Entry<String, List<String>> entry : conf.getVertexInputs().entrySet()) {
+            if (!entry.getValue().contains(name))
+                continue;
+
+            GraphVertex vertex = conf.getVertices().get(entry.getKey());
+            if (!(vertex instanceof LayerVertex) || ((LayerVertex) vertex).getPreProcessor() != null
+                    || entry.getValue().size() != 1)
+                return false;
+
+            org.deeplearning4j.nn.conf.layers.Layer layer = ((LayerVertex) vertex).getLayerConf().getLayer();
+            if (layer.getClass() == ConvolutionLayer.class)
+                consumers.add(entry.getKey());
+            else if (layer instanceof DropoutLayer || layer instanceof SubsamplingLayer || layer instanceof Upsampling2D
+                    || layer instanceof ActivationLayer || layer instanceof BatchNormalization) {
+                passThrough.add(entry.getKey());
+                if (!followChannels(conf, entry.getKey(), passThrough, consumers))
+                    return false;
+            } else
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return indices of the highest scored channels in ascending order
+     */
+    private static int[] keptChannels(INDArray scores, double sparsity) {
+        double[] values = scores.toDoubleVector();
+        int count = Math.max(1, values.length - (int) Math.round(values.length * sparsity));
+
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+
+        int[] kept = new int[count];
+        for (int i = 0; i < count; i++)
+            kept[i] = order[i];
+        Arrays.sort(kept);
+        return kept;
+    }
+
+    private static INDArray select(INDArray array, int dimension, int[] indices) {
+        INDArrayIndex[] index = NDArrayIndex.allFor(array);
+        index[dimension] = new SpecifiedIndex(indices);
+        return array.get(index);
+    }
+
+    private static org.deeplearning4j.nn.conf.layers.Layer layerConf(ComputationGraphConfiguration conf, String name) {
+        return ((LayerVertex) conf.getVertices().get(name)).getLayerConf().getLayer();
+    }
+}
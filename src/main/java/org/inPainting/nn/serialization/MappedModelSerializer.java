@@ -0,0 +1,264 @@
+package org.inPainting.nn.serialization;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.utils.ContentHash;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uncompressed model format which parameters are memory-mapped straight into the network parameter buffer,
+ * replacement of ModelSerializer zips for fast startup.
+ *
+ * Layout: 64 byte header (magic, version, byte order, data type, offsets and lengths),
+ * parameters and optional updater state as raw native order arrays aligned to 64 bytes,
+ * followed by the graph configuration JSON.
+ *
+ * Parameters are mapped copy-on-write: untouched pages are shared with the page cache and loaded on first use,
+ * training writes only to private copies. Pages not copied yet still read the file, so a model file is never
+ * rewritten in place: {@link #writeModel(ComputationGraph, File, boolean)} writes a temporary file and atomically
+ * renames it over the target, networks mapping the old file keep its unlinked contents.
+ *
+ * This relies on POSIX file semantics. Windows can not replace or delete a file with a mapped view, so saving over
+ * a file loaded by a running network would fail there. On Windows parameters are therefore read into memory
+ * instead of being mapped: loading still skips unzipping and parsing, but parameters are loaded eagerly and are
+ * not shared with the page cache.
+ *
+ * Parsed configurations are cached by the hash of their JSON, so loading the same topology again skips the JSON parsing.
+ */
+@Slf4j
+public final class MappedModelSerializer {
+
+    private static final long MAGIC = 0x494e5041494e5431L; //"INPAINT1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ALIGNMENT = 64;
+
+    /**
+     * Number of cached parsed configurations.
+     */
+    private static final int CONFIGURATION_CACHE_SIZE = 8;
+
+    //least recently used configurations by the hash of their JSON
+    private static final Map<String, ComputationGraphConfiguration> CONFIGURATIONS = Collections.synchronizedMap(
+            new LinkedHashMap<String, ComputationGraphConfiguration>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ComputationGraphConfiguration> eldest) {
+                    return size() > CONFIGURATION_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Whether parameters are mapped, false on Windows, see the class description.
+     */
+    public static final boolean MAP_PARAMETERS = !System.getProperty("os.name", "").startsWith("Windows");
+
+    //mapped files are kept alive while the parameter buffers using them exist
+    private static final Map<Reference<DataBuffer>, MappedByteBuffer> MAPPINGS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<DataBuffer> RELEASED = new ReferenceQueue<>();
+
+    private MappedModelSerializer() {
+    }
+
+    /**
+     * Writes a temporary file next to the target and atomically renames it over the target,
+     * so networks mapping the previous file are not affected.
+     *
+     * @param graph network to write
+     * @param file output file
+     * @param saveUpdater write updater state, needed only to continue training
+     */
+    public static void writeModel(ComputationGraph graph, File file, boolean saveUpdater) throws IOException {
+        INDArray params = graph.params().dup('c');
+        INDArray updater = saveUpdater && graph.getUpdater() != null && graph.getUpdater().getStateViewArray() != null
+                ? graph.getUpdater().getStateViewArray().castTo(params.dataType()).dup('c')
+                : null;
+        byte[] configuration = graph.getConfiguration().toJson().getBytes(StandardCharsets.UTF_8);
+
+        int elementSize = Nd4j.sizeOfDataType(params.dataType());
+        long paramsOffset = HEADER_SIZE;
+        long updaterOffset = align(paramsOffset + params.length() * elementSize);
+        long updaterLength = updater != null ? updater.length() : 0;
+        long configurationOffset = align(updaterOffset + updaterLength * elementSize);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        header.putLong(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1)
+                .putInt(params.dataType().ordinal())
+                .putInt(configuration.length)
+                .putLong(params.length())
+                .putLong(paramsOffset)
+                .putLong(updaterLength)
+                .putLong(updaterOffset)
+                .putLong(configurationOffset);
+        header.rewind();
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        Path temporary = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writeFully(channel, header, 0);
+                writeFully(channel, bytes(params), paramsOffset);
+                if (updater != null)
+                    writeFully(channel, bytes(updater), updaterOffset);
+                writeFully(channel, ByteBuffer.wrap(configuration), configurationOffset);
+                channel.force(true);
+            }
+            Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param file model written by {@link #writeModel(ComputationGraph, File, boolean)}
+     * @param loadUpdater load updater state, not needed for inference
+     * @return initialized network using mapped parameters, or parameters read into memory if
+     * {@link #MAP_PARAMETERS} is false
+     */
+    public static ComputationGraph restoreComputationGraph(File file, boolean loadUpdater) throws IOException {
+        releaseMappings();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining())
+                if (channel.read(header, header.position()) < 0)
+                    throw new IOException("Not a mapped model: " + file);
+            header.rewind();
+
+            if (header.getLong() != MAGIC)
+                throw new IOException("Not a mapped model: " + file);
+            int version = header.getInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported mapped model version " + version);
+            ByteOrder order = header.getInt() == 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            if (order != ByteOrder.nativeOrder())
+                throw new IOException("Mapped model " + file + " was written with " + order + " byte order");
+
+            DataType dataType = DataType.values()[header.getInt()];
+            int configurationLength = header.getInt();
+            long paramsLength = header.getLong();
+            long paramsOffset = header.getLong();
+            long updaterLength = header.getLong();
+            long updaterOffset = header.getLong();
+            long configurationOffset = header.getLong();
+            int elementSize = Nd4j.sizeOfDataType(dataType);
+
+            ByteBuffer configuration = channel.map(FileChannel.MapMode.READ_ONLY, configurationOffset, configurationLength);
+            byte[] json = new byte[configurationLength];
+            configuration.get(json);
+
+            ComputationGraph graph = new ComputationGraph(configuration(new String(json, StandardCharsets.UTF_8)));
+            graph.init(array(channel, paramsOffset, paramsLength, elementSize, dataType), false);
+
+            if (loadUpdater && updaterLength > 0)
+                graph.getUpdater().setStateViewArray(array(channel, updaterOffset, updaterLength, elementSize, dataType));
+
+            return graph;
+        }
+    }
+
+    /**
+     * @return parsed configuration, cached by the hash of its JSON
+     */
+    private static ComputationGraphConfiguration configuration(String json) {
+        String key = ContentHash.hex(json.getBytes(StandardCharsets.UTF_8));
+        ComputationGraphConfiguration configuration = CONFIGURATIONS.get(key);
+        if (configuration == null) {
+            configuration = ComputationGraphConfiguration.fromJson(json);
+            CONFIGURATIONS.put(key, configuration);
+        }
+        return configuration.clone();
+    }
+
+    private static INDArray array(FileChannel channel, long offset, long length, int elementSize, DataType dataType) throws IOException {
+        return MAP_PARAMETERS
+                ? map(channel, offset, length, elementSize, dataType)
+                : read(channel, offset, length, elementSize, dataType);
+    }
+
+    /**
+     * @return row vector [1, length] read from the file into a new array
+     */
+    private static INDArray read(FileChannel channel, long offset, long length, int elementSize, DataType dataType) throws IOException {
+        INDArray array = Nd4j.createUninitialized(dataType, 1, length);
+        ByteBuffer bytes = bytes(array);
+        while (bytes.hasRemaining())
+            if (channel.read(bytes, offset + bytes.position()) < 0)
+                throw new IOException("Mapped model is truncated");
+        return array;
+    }
+
+    /**
+     * @return row vector [1, length] on top of the mapped region, without copying
+     */
+    private static INDArray map(FileChannel channel, long offset, long length, int elementSize, DataType dataType) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE, offset, length * elementSize);
+        mapped.order(ByteOrder.nativeOrder());
+
+        DataBuffer buffer;
+        switch (dataType) {
+            case FLOAT:
+                FloatPointer floats = new FloatPointer(mapped.asFloatBuffer());
+                buffer = Nd4j.createBuffer(floats, dataType, length, FloatIndexer.create(floats));
+                break;
+            case DOUBLE:
+                DoublePointer doubles = new DoublePointer(mapped.asDoubleBuffer());
+                buffer = Nd4j.createBuffer(doubles, dataType, length, DoubleIndexer.create(doubles));
+                break;
+            default:
+                throw new IOException("Unsupported mapped parameters type " + dataType);
+        }
+
+        MAPPINGS.put(new WeakReference<>(buffer, RELEASED), mapped);
+        return Nd4j.create(buffer, 1, length);
+    }
+
+    private static void releaseMappings() {
+        for (Reference<? extends DataBuffer> reference; (reference = RELEASED.poll()) != null; )
+            MAPPINGS.remove(reference);
+    }
+
+    private static ByteBuffer bytes(INDArray array) {
+        ByteBuffer bytes = array.data().asNio().order(ByteOrder.nativeOrder());
+        bytes.limit((int) (array.length() * Nd4j.sizeOfDataType(array.dataType())));
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -1,60 +1,316 @@
 package org.inPainting.utils;
 
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Broadcast;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
 import org.inPainting.nn.dataSets.ImageDataSetIterator;
 import org.inPainting.nn.dataSets.ImageFileDataSetIterator;
 import org.inPainting.nn.dataSets.ImageMemoryDataSetIterator;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 public final class ImageLoader {
 
     private WritableImage writableTemp;
 
+    /**
+     * Reused pixels of {@link #emptyImage(Color, int, int)}.
+     */
+    private IntBuffer fillPixels;
+
     public WritableImage emptyImage(Color color, int width, int height) {
         writableTemp = new WritableImage(width, height);
-        PixelWriter pixelWriter = writableTemp.getPixelWriter();
 
-        for (int y = 0; y < height; y++)
-            for (int x = 0; x < width; x++)
-                pixelWriter.setColor(x, y, color);
+        int area = width * height;
+        if (fillPixels == null || fillPixels.capacity() < area)
+            fillPixels = IntBuffer.allocate(area);
+        Arrays.fill(fillPixels.array(), 0, area, toArgb(color));
+        fillPixels.rewind();
+        writableTemp.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), fillPixels, width);
 
         return writableTemp;
     }
 
+    /**
+     * Renders the first image of the array, packed by {@link #toArgb(INDArray)} and written in one call.
+     *
+     * @param data images [n, 3, h, w] or masks [n, 1, h, w] with values in [0, 1]
+     * @param width width of the rendered part, at most w
+     * @param height height of the rendered part, at most h
+     */
     public WritableImage drawImage(INDArray data, int width, int height) {
-
         writableTemp = new WritableImage(width, height);
-        PixelWriter pixelWriter = writableTemp.getPixelWriter();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                double r = data.getDouble(0,0,y,x);
-                double g = data.getDouble(0,1,y,x);
-                double b = data.getDouble(0,2,y,x);
-                Color color = new Color(r, g, b, 1);
-                pixelWriter.setColor(x, y, color);
-            }
-        }
+
+        INDArray argb = toArgb(data);
+        //pixels are read directly from the native buffer of the packed array
+        IntBuffer pixels = argb.data().asNioInt();
+        writableTemp.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                pixels, (int) argb.size(1));
         return writableTemp;
     }
 
+    /**
+     * Packs the first image of the array to opaque ARGB pixels by whole array operations,
+     * values are clamped to [0, 1] and rounded to 8 bits. Single channel arrays are rendered gray.
+     *
+     * @param data images [n, 3, h, w] or masks [n, 1, h, w] with values in [0, 1]
+     * @return ARGB pixels [h, w], int data type, 'c' order, not a view
+     */
+    public static INDArray toArgb(INDArray data) {
+        INDArray image = data.get(NDArrayIndex.point(0));
+        INDArray bytes = Transforms.round(Transforms.min(Transforms.max(image.mul(255.0), 0.0, false), 255.0, false), false)
+                .castTo(DataType.INT);
+
+        INDArray red = bytes.get(NDArrayIndex.point(0));
+        INDArray green = bytes.get(NDArrayIndex.point(bytes.size(0) > 1 ? 1 : 0));
+        INDArray blue = bytes.get(NDArrayIndex.point(bytes.size(0) > 2 ? 2 : 0));
+        return red.mul(1 << 16).addi(green.mul(1 << 8)).addi(blue).addi(0xFF000000).dup('c');
+    }
+
+    private static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255.0) << 24 | (int) Math.round(color.getRed() * 255.0) << 16
+                | (int) Math.round(color.getGreen() * 255.0) << 8 | (int) Math.round(color.getBlue() * 255.0);
+    }
+
+    /**
+     * Input image with holes (non zero mask values) replaced by the generated image.
+     *
+     * @param IImage input images [n, 3, h, w]
+     * @param Mask masks [n, 1, h, w]
+     * @param OImage generated images [n, 3, h, w], not modified
+     * @param width unused, sizes are taken from the arrays
+     * @param height unused, sizes are taken from the arrays
+     * @return merged images
+     * @see #mergeInPlace(INDArray, INDArray, INDArray)
+     */
     public static INDArray mergeImagesByMask(INDArray IImage, INDArray Mask, INDArray OImage, int width, int height) {
-        INDArray indArray = OImage.dup();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if (Mask.getDouble(0,0,y,x) == 0.0D) {
-                    indArray.putScalar(new int[]{0,0,y,x},IImage.getDouble(0,0,y,x));
-                    indArray.putScalar(new int[]{0,1,y,x},IImage.getDouble(0,1,y,x));
-                    indArray.putScalar(new int[]{0,2,y,x},IImage.getDouble(0,2,y,x));
+        return mergeInPlace(IImage, Mask, OImage.dup());
+    }
+
+    /**
+     * Replaces pixels of the generated images outside holes (zero mask values) by the input images,
+     * in the generated images buffer.
+     *
+     * @param input input images [n, 3, h, w]
+     * @param mask masks [n, 1, h, w], non zero values mark holes
+     * @param generated generated images [n, 3, h, w], overwritten by the result
+     * @return generated
+     */
+    public static INDArray mergeInPlace(INDArray input, INDArray mask, INDArray generated) {
+        return blendInPlace(input, mask.neq(0.0).castTo(generated.dataType()), generated);
+    }
+
+    /**
+     * Blends the generated images with the input images, generated = weights * generated + (1 - weights) * input,
+     * by whole array operations with the weights broadcast over the channels.
+     *
+     * @param input input images [n, c, h, w]
+     * @param weights weights of the generated images in [0, 1], [n, 1, h, w], e.g. {@link #featherMask(INDArray, int)}
+     * @param generated generated images [n, c, h, w], overwritten by the result
+     * @return generated
+     */
+    public static INDArray blendInPlace(INDArray input, INDArray weights, INDArray generated) {
+        long[] shape = generated.shape();
+        INDArray planes = weights.reshape(shape[0], shape[2], shape[3]);
+        generated.subi(input);
+        Broadcast.mul(generated, planes, generated, 0, 2, 3);
+        return generated.addi(input);
+    }
+
+    /**
+     * Soft mask with weight 1 in holes falling to 0 at 2 * radius pixels around them, blending generated pixels
+     * smoothly into the input instead of a hard edge. The hole is dilated by radius, then box blurred by radius.
+     *
+     * @param mask masks [n, 1, h, w], non zero values mark holes
+     * @param radius feathering radius in pixels, 0 returns the hard mask
+     * @return weights [n, 1, h, w] in [0, 1]
+     */
+    public static INDArray featherMask(INDArray mask, int radius) {
+        INDArray hard = mask.neq(0.0).castTo(DataType.FLOAT).dup('c');
+        if (radius <= 0)
+            return hard;
+
+        int count = (int) mask.size(0);
+        int height = (int) mask.size(2);
+        int width = (int) mask.size(3);
+        int area = width * height;
+        float[] data = hard.data().asFloat();
+        float[] plane = new float[area];
+        float[] temporary = new float[area];
+
+        for (int n = 0; n < count; n++) {
+            System.arraycopy(data, n * area, plane, 0, area);
+            //dilation by radius, pixels with a hole in their window
+            boxSum(plane, temporary, width, height, radius);
+            for (int i = 0; i < area; i++)
+                plane[i] = plane[i] > 0.0f ? 1.0f : 0.0f;
+            //box blur of the dilated holes
+            boxSum(plane, temporary, width, height, radius);
+            for (int y = 0; y < height; y++)
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    //holes keep exactly the generated pixels
+                    data[n * area + i] = data[n * area + i] != 0.0f ? 1.0f
+                            : plane[i] / (window(x, width, radius) * window(y, height, radius));
                 }
-            }
         }
-        return indArray;
+        return Nd4j.create(data, new long[]{count, 1, height, width}, DataType.FLOAT);
+    }
+
+    /**
+     * Separable box sums with windows clamped at the borders, by running sums, in place.
+     * Values are 0 or 1, so the sums are exact integers and pixels without a non zero value in their window stay 0.
+     */
+    private static void boxSum(float[] plane, float[] temporary, int width, int height, int radius) {
+        for (int y = 0; y < height; y++)
+            sumLine(plane, temporary, y * width, 1, width, radius);
+        for (int x = 0; x < width; x++)
+            sumLine(temporary, plane, x, width, height, radius);
+    }
+
+    private static void sumLine(float[] source, float[] target, int offset, int stride, int length, int radius) {
+        float sum = 0.0f;
+        for (int i = 0; i < Math.min(radius, length); i++)
+            sum += source[offset + i * stride];
+        for (int i = 0; i < length; i++) {
+            if (i + radius < length)
+                sum += source[offset + (i + radius) * stride];
+            if (i - radius - 1 >= 0)
+                sum -= source[offset + (i - radius - 1) * stride];
+            target[offset + i * stride] = sum;
+        }
+    }
+
+    /**
+     * @return size of the window of radius around i clamped to [0, length)
+     */
+    private static int window(int i, int length, int radius) {
+        return Math.min(i + radius, length - 1) - Math.max(i - radius, 0) + 1;
+    }
+
+    /**
+     * Reads image of any size without JavaFX, values are scaled to [0, 1].
+     *
+     * @return image [1, 3, height, width]
+     */
+    public static INDArray readImage(File file) throws IOException {
+        return toImage(read(file));
+    }
+
+    /**
+     * @see #readImage(File)
+     */
+    public static INDArray readImage(InputStream input) throws IOException {
+        return toImage(read(input));
+    }
+
+    /**
+     * @return image [1, 3, height, width] with values in [0, 1]
+     */
+    public static INDArray toImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        float[] data = new float[3 * argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            data[i] = ((argb[i] >> 16) & 0xFF) / 255.0f;
+            data[argb.length + i] = ((argb[i] >> 8) & 0xFF) / 255.0f;
+            data[2 * argb.length + i] = (argb[i] & 0xFF) / 255.0f;
+        }
+        return Nd4j.create(data, new long[]{1, 3, height, width}, DataType.FLOAT);
+    }
+
+    /**
+     * Reads mask of any size without JavaFX, value of a pixel is its brightness as in the data set iterators.
+     *
+     * @return mask [1, 1, height, width]
+     */
+    public static INDArray readMask(File file) throws IOException {
+        return toMask(read(file));
+    }
+
+    /**
+     * @see #readMask(File)
+     */
+    public static INDArray readMask(InputStream input) throws IOException {
+        return toMask(read(input));
+    }
+
+    /**
+     * Writes image [1, 3, height, width] with values in [0, 1] as PNG.
+     */
+    public static void writePng(INDArray image, OutputStream output) throws IOException {
+        ImageIO.write(toBufferedImage(image), "png", output);
+    }
+
+    /**
+     * Encodes image [1, 3, height, width] with values in [0, 1] as PNG without JavaFX, e.g. for HTTP responses.
+     *
+     * @return PNG file content
+     */
+    public static byte[] toPng(INDArray image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream(3 * (int) (image.size(2) * image.size(3)) / 2);
+        writePng(image, png);
+        return png.toByteArray();
+    }
+
+    /**
+     * @param image image [1, 3, height, width] with values in [0, 1]
+     * @return RGB image
+     */
+    public static BufferedImage toBufferedImage(INDArray image) {
+        int height = (int) image.size(2);
+        int width = (int) image.size(3);
+
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        //copied straight into the raster, alpha is ignored by the RGB type
+        int[] pixels = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+        toArgb(image).data().asNioInt().get(pixels, 0, width * height);
+        return bufferedImage;
+    }
+
+    /**
+     * @return mask [1, 1, height, width], value of a pixel is its brightness
+     */
+    public static INDArray toMask(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        float[] data = new float[argb.length];
+        for (int i = 0; i < argb.length; i++)
+            data[i] = Math.max((argb[i] >> 16) & 0xFF, Math.max((argb[i] >> 8) & 0xFF, argb[i] & 0xFF)) / 255.0f;
+        return Nd4j.create(data, new long[]{1, 1, height, width}, DataType.FLOAT);
+    }
+
+    private static BufferedImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("Unsupported image format " + file);
+        return image;
+    }
+
+    private static BufferedImage read(InputStream input) throws IOException {
+        BufferedImage image = ImageIO.read(input);
+        if (image == null)
+            throw new IOException("Unsupported image format");
+        return image;
     }
 
     public ImageMemoryDataSetIterator prepareInMemoryData() {
@@ -0,0 +1,247 @@
+package org.inPainting.utils;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed cache of inpainting results, key is the hash of the request images and the model version.
+ *
+ * Memory tier is an LRU map bounded by the size of cached values. Optional disk tier keeps one file per entry
+ * (named by the key) in a directory, bounded by size as well, oldest files are removed first.
+ * Changing the model version clears the memory tier and removes disk entries of other versions, keys of the old
+ * model can not be requested anymore. Disk entries of the new version, e.g. written before a restart, are kept.
+ */
+@Slf4j
+public class ResultCache {
+
+    private static final String SUFFIX = ".result";
+
+    @Getter
+    private final long maxMemoryBytes;
+    @Getter
+    private final long maxDiskBytes;
+    private final File directory;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+
+    @Getter
+    private volatile String modelVersion = "";
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxMemoryBytes maximum size of values kept in memory
+     * @param directory directory of the disk tier, null disables it
+     * @param maxDiskBytes maximum size of the disk tier files
+     */
+    public ResultCache(long maxMemoryBytes, File directory, long maxDiskBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IllegalArgumentException("Can not create cache directory " + directory);
+            for (File file : entries())
+                diskBytes += file.length();
+        }
+    }
+
+    /**
+     * @return key of the request for the current model version
+     */
+    public String key(byte[] image, byte[] mask) {
+        return key(image, mask, modelVersion);
+    }
+
+    /**
+     * @return key of the request for the model version
+     */
+    public String key(byte[] image, byte[] mask, String modelVersion) {
+        return ContentHash.hex(image, mask) + "-" + modelVersion;
+    }
+
+    /**
+     * @return model version of the key
+     */
+    public static String version(String key) {
+        //hash part is hex, the version follows the first separator
+        return key.substring(key.indexOf('-') + 1);
+    }
+
+    /**
+     * Sets version of the loaded model, cached results of other versions are removed.
+     *
+     * @param modelVersion version usable in file names, e.g. hash of the model file
+     */
+    public synchronized void setModelVersion(String modelVersion) {
+        if (modelVersion.equals(this.modelVersion))
+            return;
+
+        this.modelVersion = modelVersion;
+        memory.clear();
+        memoryBytes = 0;
+        if (directory != null) {
+            for (File file : entries())
+                if (!file.getName().endsWith("-" + modelVersion + SUFFIX) && !file.delete())
+                    log.warn("Can not remove cached result " + file);
+            diskBytes = 0;
+            for (File file : entries())
+                diskBytes += file.length();
+        }
+        log.info("Result cache invalidated, model version " + modelVersion);
+    }
+
+    /**
+     * @return cached value or null
+     */
+    public byte[] get(String key) {
+        byte[] value;
+        synchronized (this) {
+            value = memory.get(key);
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+
+        if (directory != null) {
+            File file = file(key);
+            try {
+                if (file.exists()) {
+                    value = Files.readAllBytes(file.toPath());
+                    putMemory(key, value);
+                    diskHits.incrementAndGet();
+                    return value;
+                }
+            } catch (IOException e) {
+                log.warn("Can not read cached result " + file, e);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, byte[] value) {
+        if (!key.endsWith("-" + modelVersion))
+            return; //result of a model replaced in the meantime
+
+        putMemory(key, value);
+        if (directory != null && value.length <= maxDiskBytes)
+            putDisk(key, value);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return hits (memory and disk) / requests
+     */
+    public double hitRate() {
+        long hits = this.hits.get() + diskHits.get();
+        long requests = hits + misses.get();
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     * @return statistics for monitoring
+     */
+    public synchronized Map<String, Object> statistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("modelVersion", modelVersion);
+        statistics.put("hits", hits.get());
+        statistics.put("diskHits", diskHits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("hitRate", hitRate());
+        statistics.put("entries", memory.size());
+        statistics.put("memoryBytes", memoryBytes);
+        statistics.put("maxMemoryBytes", maxMemoryBytes);
+        statistics.put("diskBytes", diskBytes);
+        statistics.put("maxDiskBytes", directory != null ? maxDiskBytes : 0);
+        return statistics;
+    }
+
+    private synchronized void putMemory(String key, byte[] value) {
+        if (value.length > maxMemoryBytes)
+            return;
+
+        byte[] previous = memory.put(key, value);
+        memoryBytes += value.length - (previous != null ? previous.length : 0);
+
+        Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private synchronized void putDisk(String key, byte[] value) {
+        File file = file(key);
+        if (file.exists())
+            return;
+
+        try {
+            //written to a temporary file first, readers never see partial entries
+            File temporary = File.createTempFile(key, ".tmp", directory);
+            Files.write(temporary.toPath(), value);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            diskBytes += value.length;
+        } catch (IOException e) {
+            log.warn("Can not write cached result " + file, e);
+            return;
+        }
+
+        if (diskBytes > maxDiskBytes) {
+            List<File> files = entries();
+            files.sort(Comparator.comparingLong(File::lastModified));
+            for (Iterator<File> oldest = files.iterator(); diskBytes > maxDiskBytes && oldest.hasNext(); ) {
+                File removed = oldest.next();
+                long length = removed.length();
+                if (removed.delete())
+                    diskBytes -= length;
+            }
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private List<File> entries() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return files != null ? new ArrayList<>(Arrays.asList(files)) : new ArrayList<>();
+    }
+}
@@ -0,0 +1,190 @@
+package org.inPainting.video;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.inPainting.nn.inference.InpaintingSession;
+import org.inPainting.utils.ImageLoader;
+import org.jcodec.api.FrameGrab;
+import org.jcodec.api.JCodecException;
+import org.jcodec.api.SequenceEncoder;
+import org.jcodec.common.NIOUtils;
+import org.jcodec.common.SeekableByteChannel;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Streaming video inpainting: decode, inpaint and encode run as three concurrent stages
+ * connected by bounded queues, so decoding and encoding overlap with the generator.
+ *
+ * Frames are inpainted by an {@link InpaintingSession} kept over the whole video: a tile is evaluated again
+ * only when its pixels differ from the previous frame by more than the tolerance or its mask changed,
+ * otherwise its previous generator output is reused.
+ *
+ * Mask is either a still image used for every frame, or a video with the same number of frames.
+ * Videos are read and written by jcodec (datavec-data-codec dependency).
+ */
+@Slf4j
+public class VideoInpaintingPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+    /**
+     * Default reuse tolerance, about two levels of 8-bit color, absorbs compression noise of static content.
+     */
+    public static final double DEFAULT_TOLERANCE = 2.0 / 255.0;
+
+    private static final Frame END = new Frame(null, null);
+
+    private final ComputationGraph generator;
+    private final int queueCapacity;
+    private final double tolerance;
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     */
+    public VideoInpaintingPipeline(ComputationGraph generator) {
+        this(generator, DEFAULT_QUEUE_CAPACITY, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param generator generator network with "Input" and "Mask" inputs, e.g. GAN.getGenerator()
+     * @param queueCapacity maximum number of frames waiting between two stages
+     * @param tolerance maximum absolute difference of pixel values of a tile reusing its previous output
+     */
+    public VideoInpaintingPipeline(ComputationGraph generator, int queueCapacity, double tolerance) {
+        this.generator = generator;
+        this.queueCapacity = queueCapacity;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param input input video
+     * @param mask mask image or mask video
+     * @param output output video (MP4, H.264)
+     * @return statistics of the run
+     */
+    public Statistics run(File input, File mask, File output) throws IOException, InterruptedException {
+        BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Frame> inpainted = new ArrayBlockingQueue<>(queueCapacity);
+        Statistics statistics = new Statistics();
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+        long start = System.nanoTime();
+        try {
+            stages.submit(() -> decode(input, mask, decoded));
+            stages.submit(() -> inpaint(decoded, inpainted, statistics));
+            stages.submit(() -> encode(inpainted, output));
+
+            //first failed stage stops the others, they may be blocked on a queue
+            for (int i = 0; i < 3; i++)
+                stages.take().get();
+        } catch (ExecutionException e) {
+            throw new IOException("Video inpainting of " + input + " failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        statistics.seconds = (System.nanoTime() - start) / 1e9;
+        log.info("Inpainted " + statistics.frames + " frames of " + input + " in " + statistics.seconds + " s, evaluated "
+                + statistics.evaluatedTiles + " of " + statistics.totalTiles + " tiles");
+        return statistics;
+    }
+
+    private Void decode(File input, File mask, BlockingQueue<Frame> decoded) throws IOException, JCodecException, InterruptedException {
+        SeekableByteChannel videoChannel = NIOUtils.readableFileChannel(input);
+        SeekableByteChannel maskChannel = null;
+        try {
+            FrameGrab video = new FrameGrab(videoChannel);
+            BufferedImage stillMask = ImageIO.read(mask);
+            FrameGrab maskVideo = null;
+            if (stillMask == null) {
+                maskChannel = NIOUtils.readableFileChannel(mask);
+                maskVideo = new FrameGrab(maskChannel);
+            }
+            INDArray maskArray = stillMask != null ? ImageLoader.toMask(stillMask) : null;
+
+            for (BufferedImage frame; (frame = video.getFrame()) != null; ) {
+                if (maskVideo != null) {
+                    BufferedImage maskFrame = maskVideo.getFrame();
+                    if (maskFrame == null)
+                        throw new IOException("Mask video " + mask + " has less frames than " + input);
+                    maskArray = ImageLoader.toMask(maskFrame);
+                }
+                decoded.put(new Frame(ImageLoader.toImage(frame), maskArray));
+            }
+        } finally {
+            decoded.put(END);
+            NIOUtils.closeQuietly(videoChannel);
+            NIOUtils.closeQuietly(maskChannel);
+        }
+        return null;
+    }
+
+    private Void inpaint(BlockingQueue<Frame> decoded, BlockingQueue<Frame> inpainted, Statistics statistics) throws InterruptedException {
+        InpaintingSession session = null;
+        try {
+            for (Frame frame; (frame = decoded.take()) != END; ) {
+                INDArray result;
+                if (session == null) {
+                    session = new InpaintingSession(generator, frame.image, frame.mask);
+                    result = session.getOutput();
+                } else
+                    result = session.updateFrame(frame.image, frame.mask, tolerance);
+
+                statistics.frames++;
+                statistics.totalTiles += session.getTileCount();
+                statistics.evaluatedTiles += session.getLastEvaluatedTiles();
+                inpainted.put(new Frame(result.dup(), null));
+            }
+        } finally {
+            inpainted.put(END);
+        }
+        return null;
+    }
+
+    private Void encode(BlockingQueue<Frame> inpainted, File output) throws IOException, InterruptedException {
+        SequenceEncoder encoder = new SequenceEncoder(output);
+        for (Frame frame; (frame = inpainted.take()) != END; )
+            encoder.encodeImage(ImageLoader.toBufferedImage(frame.image));
+        encoder.finish();
+        return null;
+    }
+
+    private static class Frame {
+        private final INDArray image;
+        private final INDArray mask;
+
+        private Frame(INDArray image, INDArray mask) {
+            this.image = image;
+            this.mask = mask;
+        }
+    }
+
+    public static class Statistics {
+        @Getter
+        private long frames;
+        @Getter
+        private long totalTiles;
+        @Getter
+        private long evaluatedTiles;
+        @Getter
+        private double seconds;
+
+        /**
+         * @return fraction of tiles reusing the output of the previous frame
+         */
+        public double reuseRate() {
+            return totalTiles == 0 ? 0.0 : 1.0 - (double) evaluatedTiles / totalTiles;
+        }
+
+        public double framesPerSecond() {
+            return seconds == 0.0 ? 0.0 : frames / seconds;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.inPainting.nn.inference;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.descriptor.NetworkDescriptor;
+import org.inPainting.nn.entry.LEntry;
+import org.inPainting.nn.entry.LayerEntry;
+import org.inPainting.nn.entry.VertexEntry;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CroppedInferenceTest {
+
+    /**
+     * Small randomly initialized U-net (depth 2, 8 channels), alignment 4.
+     */
+    private static ComputationGraph generator() {
+        ComputationGraphConfiguration.GraphBuilder builder = new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .weightInit(WeightInit.RELU)
+                .graphBuilder()
+                .addInputs("Input", "Mask")
+                .setInputTypes(InputType.convolutional(32, 32, 3), InputType.convolutional(32, 32, 1));
+        for (LEntry entry : new GeneratorBuilder().widthMultiplier(0.125).depth(2).build()) {
+            if (entry.isVertex())
+                builder.addVertex(entry.getLayerName(), ((VertexEntry) entry).getVertex(), entry.getInputs());
+            else
+                builder.addLayer(entry.getLayerName(), ((LayerEntry) entry).getLayer(), entry.getInputs());
+        }
+        builder.setOutputs(NetworkDescriptor.GENERATOR_LOSS);
+
+        ComputationGraph generator = new ComputationGraph(builder.build());
+        generator.init();
+        return generator;
+    }
+
+    @Test
+    void cropSpanningUnalignedImageIsClampedToImage() {
+        INDArray mask = Nd4j.zeros(30, 50);
+        mask.get(NDArrayIndex.interval(12, 18), NDArrayIndex.interval(20, 26)).assign(1.0);
+
+        List<Region> regions = CroppedInference.cropRegions(mask, 16, 4);
+
+        assertEquals(1, regions.size());
+        Region crop = regions.get(0);
+        assertEquals(4, crop.getX());
+        assertEquals(0, crop.getY());
+        assertEquals(40, crop.getWidth());
+        //32 would not fit, the generator gets the crop padded
+        assertEquals(30, crop.getHeight());
+    }
+
+    @Test
+    void inpaintsImageWhoseSizeIsNotAligned() {
+        CroppedInference inference = new CroppedInference(generator(), 16);
+        assertEquals(4, inference.getAlignment());
+
+        Nd4j.getRandom().setSeed(42);
+        INDArray image = Nd4j.rand(new int[]{1, 3, 30, 50});
+        INDArray mask = Nd4j.zeros(1, 1, 30, 50);
+        mask.get(TiledInference.index(new Region(20, 12, 6, 6))).assign(1.0);
+
+        INDArray result = inference.inpaint(image, mask);
+
+        assertArrayEquals(image.shape(), result.shape());
+        //known pixels are kept
+        assertEquals(image.get(TiledInference.index(new Region(0, 0, 50, 12))),
+                result.get(TiledInference.index(new Region(0, 0, 50, 12))));
+        assertNotEquals(image.get(TiledInference.index(new Region(20, 12, 6, 6))),
+                result.get(TiledInference.index(new Region(20, 12, 6, 6))));
+    }
+}
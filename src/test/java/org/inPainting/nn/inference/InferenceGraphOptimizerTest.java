@@ -0,0 +1,96 @@
+package org.inPainting.nn.inference;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.ConvolutionMode;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.*;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.params.BatchNormalizationParamInitializer;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InferenceGraphOptimizerTest {
+
+    //folding changes the order of float operations
+    private static final double TOLERANCE = 1e-4;
+
+    /**
+     * in -> conv1 (identity) -> bn1 -> drop1 -> conv2 (relu) -> bn2 -> out, bn2 follows a non-linearity.
+     */
+    private static ComputationGraph graph(boolean useLogStd) {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("in")
+                .setInputTypes(InputType.convolutional(16, 16, 3))
+                .addLayer("conv1", new ConvolutionLayer.Builder(3, 3).nOut(8).convolutionMode(ConvolutionMode.Same)
+                        .activation(Activation.IDENTITY).build(), "in")
+                .addLayer("bn1", new BatchNormalization.Builder().useLogStd(useLogStd)
+                        .activation(Activation.IDENTITY).build(), "conv1")
+                .addLayer("drop1", new DropoutLayer.Builder(0.5).build(), "bn1")
+                .addLayer("conv2", new ConvolutionLayer.Builder(3, 3).nOut(4).convolutionMode(ConvolutionMode.Same)
+                        .activation(Activation.RELU).build(), "drop1")
+                .addLayer("bn2", new BatchNormalization.Builder().useLogStd(useLogStd)
+                        .activation(Activation.IDENTITY).build(), "conv2")
+                .addLayer("out", new CnnLossLayer.Builder(LossFunctions.LossFunction.MSE)
+                        .activation(Activation.IDENTITY).build(), "bn2")
+                .setOutputs("out")
+                .build();
+
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+
+        //statistics of a trained network instead of the initial identity normalization
+        Nd4j.getRandom().setSeed(42);
+        for (String name : new String[]{"bn1", "bn2"}) {
+            Layer bn = graph.getLayer(name);
+            random(bn.getParam(BatchNormalizationParamInitializer.GAMMA), 0.5, 1.5);
+            random(bn.getParam(BatchNormalizationParamInitializer.BETA), -0.5, 0.5);
+            random(bn.getParam(BatchNormalizationParamInitializer.GLOBAL_MEAN), -0.5, 0.5);
+            if (useLogStd)
+                random(bn.getParam(BatchNormalizationParamInitializer.GLOBAL_LOG_STD), -0.5, 0.3);
+            else
+                random(bn.getParam(BatchNormalizationParamInitializer.GLOBAL_VAR), 0.1, 2.0);
+        }
+        return graph;
+    }
+
+    private static void random(INDArray param, double min, double max) {
+        param.assign(Nd4j.rand(param.dataType(), param.shape()).muli(max - min).addi(min));
+    }
+
+    private static void assertEquivalent(boolean useLogStd) {
+        ComputationGraph graph = graph(useLogStd);
+        ComputationGraph optimized = InferenceGraphOptimizer.optimize(graph);
+
+        assertFalse(optimized.getConfiguration().getVertices().containsKey("bn1"));
+        assertFalse(optimized.getConfiguration().getVertices().containsKey("drop1"));
+        assertTrue(optimized.getConfiguration().getVertices().containsKey("bn2"));
+
+        INDArray input = Nd4j.rand(new int[]{2, 3, 16, 16});
+        INDArray expected = graph.outputSingle(input);
+        INDArray actual = optimized.outputSingle(input);
+        double difference = Transforms.abs(expected.sub(actual), false).maxNumber().doubleValue();
+        assertTrue(difference <= TOLERANCE, "maximum difference " + difference + " exceeds " + TOLERANCE);
+    }
+
+    @Test
+    void foldedGraphMatchesOriginal() {
+        assertEquivalent(false);
+    }
+
+    @Test
+    void foldedGraphWithLogStdMatchesOriginal() {
+        assertEquivalent(true);
+    }
+}
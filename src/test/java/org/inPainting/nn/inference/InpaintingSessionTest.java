@@ -0,0 +1,123 @@
+package org.inPainting.nn.inference;
+
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.inPainting.nn.GeneratorBuilder;
+import org.inPainting.nn.descriptor.NetworkDescriptor;
+import org.inPainting.nn.entry.LEntry;
+import org.inPainting.nn.entry.LayerEntry;
+import org.inPainting.nn.entry.VertexEntry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InpaintingSessionTest {
+
+    private static final int TILE_SIZE = 32;
+    private static final int OVERLAP = 8;
+    //cached and fresh tile outputs come from batches of different composition, so they may differ in rounding
+    private static final double TOLERANCE = 1e-5;
+
+    private static ComputationGraph generator;
+
+    /**
+     * Small randomly initialized U-net (depth 2, 8 channels), alignment 4.
+     */
+    @BeforeAll
+    static void createGenerator() {
+        ComputationGraphConfiguration.GraphBuilder builder = new NeuralNetConfiguration.Builder()
+                .seed(12345)
+                .weightInit(WeightInit.RELU)
+                .graphBuilder()
+                .addInputs("Input", "Mask")
+                .setInputTypes(InputType.convolutional(TILE_SIZE, TILE_SIZE, 3), InputType.convolutional(TILE_SIZE, TILE_SIZE, 1));
+        for (LEntry entry : new GeneratorBuilder().widthMultiplier(0.125).depth(2).build()) {
+            if (entry.isVertex())
+                builder.addVertex(entry.getLayerName(), ((VertexEntry) entry).getVertex(), entry.getInputs());
+            else
+                builder.addLayer(entry.getLayerName(), ((LayerEntry) entry).getLayer(), entry.getInputs());
+        }
+        builder.setOutputs(NetworkDescriptor.GENERATOR_LOSS);
+
+        generator = new ComputationGraph(builder.build());
+        generator.init();
+    }
+
+    private static INDArray image() {
+        Nd4j.getRandom().setSeed(42);
+        return Nd4j.rand(new int[]{1, 3, 70, 100});
+    }
+
+    private static INDArray mask() {
+        INDArray mask = Nd4j.zeros(1, 1, 70, 100);
+        fill(mask, new Region(10, 10, 30, 20), 1.0);
+        fill(mask, new Region(70, 40, 20, 20), 1.0);
+        return mask;
+    }
+
+    private static void fill(INDArray array, Region region, double value) {
+        array.get(TiledInference.index(region)).assign(value);
+    }
+
+    private static INDArray tiled(INDArray image, INDArray mask) {
+        return new TiledInference(generator, TILE_SIZE, OVERLAP, 4).inpaint(image, mask);
+    }
+
+    private static void assertClose(INDArray expected, INDArray actual) {
+        double difference = Transforms.abs(expected.sub(actual), false).maxNumber().doubleValue();
+        assertTrue(difference <= TOLERANCE, "maximum difference " + difference + " exceeds " + TOLERANCE);
+    }
+
+    @Test
+    void initialOutputMatchesTiledInference() {
+        InpaintingSession session = new InpaintingSession(generator, image(), mask(), TILE_SIZE, OVERLAP, 4);
+
+        assertClose(tiled(image(), mask()), session.getOutput());
+    }
+
+    @Test
+    void updateMaskMatchesFreshTiledPass() {
+        InpaintingSession session = new InpaintingSession(generator, image(), mask(), TILE_SIZE, OVERLAP, 4);
+
+        Region stroke = new Region(50, 20, 8, 6);
+        session.updateMask(stroke, Nd4j.ones(1, 1, stroke.getHeight(), stroke.getWidth()));
+
+        INDArray mask = mask();
+        fill(mask, stroke, 1.0);
+        assertClose(tiled(image(), mask), session.getOutput());
+        assertTrue(session.getLastEvaluatedTiles() < session.getTileCount());
+    }
+
+    @Test
+    void updateFrameMatchesFreshTiledPass() {
+        InpaintingSession session = new InpaintingSession(generator, image(), mask(), TILE_SIZE, OVERLAP, 4);
+
+        INDArray nextImage = image();
+        nextImage.get(TiledInference.index(new Region(75, 45, 10, 10))).addi(0.1);
+        INDArray nextMask = mask();
+        fill(nextMask, new Region(40, 10, 6, 20), 1.0);
+        INDArray output = session.updateFrame(nextImage, nextMask, 0.0);
+
+        assertClose(tiled(nextImage, nextMask), output);
+        assertTrue(session.getLastEvaluatedTiles() > 0);
+        assertTrue(session.getLastEvaluatedTiles() < session.getTileCount());
+    }
+
+    @Test
+    void unchangedFrameEvaluatesNothing() {
+        InpaintingSession session = new InpaintingSession(generator, image(), mask(), TILE_SIZE, OVERLAP, 4);
+        INDArray before = session.getOutput().dup();
+
+        session.updateFrame(image(), mask(), 0.0);
+
+        assertEquals(0, session.getLastEvaluatedTiles());
+        assertEquals(before, session.getOutput());
+    }
+}
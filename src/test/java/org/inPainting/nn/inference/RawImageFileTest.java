@@ -0,0 +1,108 @@
+package org.inPainting.nn.inference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RawImageFileTest {
+
+    private static final Region REGION = new Region(7, 5, 180, 100);
+
+    private static BufferedImage image(int type) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(200, 120, type);
+        for (int y = 0; y < image.getHeight(); y++)
+            for (int x = 0; x < image.getWidth(); x++)
+                image.setRGB(x, y, random.nextInt());
+        return image;
+    }
+
+    private static File write(BufferedImage image, String format, boolean progressive, File directory) throws IOException {
+        File file = new File(directory, "image." + format);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (progressive)
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return file;
+    }
+
+    /**
+     * Compares region read from the raw file with the region of the file decoded by ImageIO.
+     */
+    private static void assertDecoded(File file) throws IOException {
+        BufferedImage expected = ImageIO.read(file);
+        int plane = REGION.getWidth() * REGION.getHeight();
+
+        try (RawImageFile rgb = new RawImageFile(file, 3); RawImageFile brightness = new RawImageFile(file, 1)) {
+            assertEquals(expected.getWidth(), rgb.getWidth());
+            assertEquals(expected.getHeight(), rgb.getHeight());
+            float[] colors = rgb.read(REGION);
+            float[] values = brightness.read(REGION);
+
+            for (int y = 0; y < REGION.getHeight(); y++)
+                for (int x = 0; x < REGION.getWidth(); x++) {
+                    int argb = expected.getRGB(REGION.getX() + x, REGION.getY() + y);
+                    int r = (argb >> 16) & 0xFF;
+                    int g = (argb >> 8) & 0xFF;
+                    int b = argb & 0xFF;
+                    int p = y * REGION.getWidth() + x;
+                    assertEquals(r / 255.0f, colors[p]);
+                    assertEquals(g / 255.0f, colors[plane + p]);
+                    assertEquals(b / 255.0f, colors[2 * plane + p]);
+                    assertEquals(Math.max(r, Math.max(g, b)) / 255.0f, values[p]);
+                }
+        }
+    }
+
+    @Test
+    void decodesPng(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_INT_RGB), "png", false, directory));
+    }
+
+    @Test
+    void decodesInterlacedPng(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_INT_RGB), "png", true, directory));
+    }
+
+    @Test
+    void decodesPalettePng(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_BYTE_INDEXED), "png", false, directory));
+    }
+
+    @Test
+    void decodesGrayPng(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_BYTE_GRAY), "png", false, directory));
+    }
+
+    @Test
+    void decodesJpeg(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_INT_RGB), "jpeg", false, directory));
+    }
+
+    @Test
+    void decodesProgressiveJpeg(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_INT_RGB), "jpeg", true, directory));
+    }
+
+    @Test
+    void decodesBmp(@TempDir File directory) throws IOException {
+        assertDecoded(write(image(BufferedImage.TYPE_INT_RGB), "bmp", false, directory));
+    }
+}
@@ -0,0 +1,53 @@
+package org.inPainting.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * XXH64 test vectors of the reference implementation (xxhsum sanity check).
+ */
+class ContentHashTest {
+
+    private static final long PRIME32 = 2654435761L;
+
+    /**
+     * Sanity buffer of xxhsum: bytes are the top byte of a repeatedly squared 32-bit generator.
+     */
+    private static byte[] sanityBuffer(int length) {
+        byte[] buffer = new byte[length];
+        long generator = PRIME32;
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) (generator >>> 24);
+            generator = (generator * generator) & 0xFFFFFFFFL;
+        }
+        return buffer;
+    }
+
+    @Test
+    void matchesReferenceVectors() {
+        byte[] buffer = sanityBuffer(101);
+        assertEquals(0xEF46DB3751D8E999L, ContentHash.xxh64(Arrays.copyOf(buffer, 0), 0));
+        assertEquals(0xAC75FDA2929B17EFL, ContentHash.xxh64(Arrays.copyOf(buffer, 0), PRIME32));
+        assertEquals(0x4FCE394CC88952D8L, ContentHash.xxh64(Arrays.copyOf(buffer, 1), 0));
+        assertEquals(0x739840CB819FA723L, ContentHash.xxh64(Arrays.copyOf(buffer, 1), PRIME32));
+        assertEquals(0xCFFA8DB881BC3A3DL, ContentHash.xxh64(Arrays.copyOf(buffer, 14), 0));
+        assertEquals(0x5B9611585EFCC9CBL, ContentHash.xxh64(Arrays.copyOf(buffer, 14), PRIME32));
+        assertEquals(0x0EAB543384F878ADL, ContentHash.xxh64(buffer, 0));
+        assertEquals(0xCAA65939306F1E21L, ContentHash.xxh64(buffer, PRIME32));
+    }
+
+    @Test
+    void matchesReferenceVectorOfString() {
+        assertEquals(0x44BC2CF5AD770999L, ContentHash.xxh64("abc".getBytes(StandardCharsets.US_ASCII), 0));
+    }
+
+    @Test
+    void hexConcatenatesHashes() {
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("44bc2cf5ad770999ef46db3751d8e999", ContentHash.hex(abc, new byte[0]));
+    }
+}
@@ -0,0 +1,94 @@
+package org.inPainting.utils;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageLoaderTest {
+
+    private static final int HEIGHT = 40;
+    private static final int WIDTH = 50;
+    //(generated - input) + input may round the last bit of a generated pixel
+    private static final double TOLERANCE = 1e-6;
+
+    /**
+     * Batch of two masks with differently placed holes, one with non binary values.
+     */
+    private static INDArray masks() {
+        INDArray masks = Nd4j.zeros(DataType.FLOAT, 2, 1, HEIGHT, WIDTH);
+        masks.get(NDArrayIndex.point(0), NDArrayIndex.point(0), NDArrayIndex.interval(5, 12),
+                NDArrayIndex.interval(8, 20)).assign(1.0);
+        masks.get(NDArrayIndex.point(1), NDArrayIndex.point(0), NDArrayIndex.interval(20, 38),
+                NDArrayIndex.interval(30, 33)).assign(0.5);
+        masks.putScalar(new int[]{1, 0, 0, 0}, 1.0);
+        return masks;
+    }
+
+    /**
+     * Per pixel merge of the former mergeImagesByMask, applied to every image of the batch.
+     */
+    private static INDArray mergePerPixel(INDArray input, INDArray mask, INDArray generated) {
+        INDArray merged = generated.dup();
+        for (int n = 0; n < input.size(0); n++)
+            for (int y = 0; y < HEIGHT; y++)
+                for (int x = 0; x < WIDTH; x++)
+                    if (mask.getDouble(n, 0, y, x) == 0.0D)
+                        for (int c = 0; c < 3; c++)
+                            merged.putScalar(new int[]{n, c, y, x}, input.getDouble(n, c, y, x));
+        return merged;
+    }
+
+    @Test
+    void mergeInPlaceMatchesPerPixelMerge() {
+        Nd4j.getRandom().setSeed(42);
+        INDArray input = Nd4j.rand(DataType.FLOAT, 2, 3, HEIGHT, WIDTH);
+        INDArray generated = Nd4j.rand(DataType.FLOAT, 2, 3, HEIGHT, WIDTH);
+        INDArray mask = masks();
+
+        INDArray expected = mergePerPixel(input, mask, generated);
+        INDArray merged = ImageLoader.mergeImagesByMask(input, mask, generated, WIDTH, HEIGHT);
+        INDArray inPlace = ImageLoader.mergeInPlace(input, mask, generated.dup());
+
+        assertEquals(0.0, expected.sub(merged).amaxNumber().doubleValue(), TOLERANCE);
+        assertEquals(0.0, expected.sub(inPlace).amaxNumber().doubleValue(), TOLERANCE);
+    }
+
+    @Test
+    void featherMaskIsOneInHolesAndZeroBeyondTwiceTheRadius() {
+        int radius = 3;
+        INDArray mask = masks();
+        float[] holes = mask.dup('c').data().asFloat();
+        float[] weights = ImageLoader.featherMask(mask, radius).dup('c').data().asFloat();
+
+        int area = HEIGHT * WIDTH;
+        for (int n = 0; n < 2; n++)
+            for (int y = 0; y < HEIGHT; y++)
+                for (int x = 0; x < WIDTH; x++) {
+                    float weight = weights[n * area + y * WIDTH + x];
+                    int distance = distanceToHole(holes, n * area, x, y);
+                    if (distance == 0)
+                        assertEquals(1.0f, weight, "hole pixel " + x + "," + y + " of image " + n);
+                    else if (distance > 2 * radius)
+                        assertEquals(0.0f, weight, "pixel " + x + "," + y + " of image " + n);
+                    else
+                        assertTrue(weight > 0.0f && weight <= 1.0f, "pixel " + x + "," + y + " of image " + n);
+                }
+    }
+
+    /**
+     * @return Chebyshev distance from the pixel to the closest hole pixel
+     */
+    private static int distanceToHole(float[] holes, int offset, int x, int y) {
+        int distance = Integer.MAX_VALUE;
+        for (int hy = 0; hy < HEIGHT; hy++)
+            for (int hx = 0; hx < WIDTH; hx++)
+                if (holes[offset + hy * WIDTH + hx] != 0.0f)
+                    distance = Math.min(distance, Math.max(Math.abs(hx - x), Math.abs(hy - y)));
+        return distance;
+    }
+}
@@ -0,0 +1,88 @@
+package org.inPainting.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        java.util.Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMemoryBound() {
+        ResultCache cache = new ResultCache(10, null, 0);
+        String a = cache.key(bytes(1, 1), bytes(1, 0));
+        String b = cache.key(bytes(1, 2), bytes(1, 0));
+        String c = cache.key(bytes(1, 3), bytes(1, 0));
+
+        cache.put(a, bytes(4, 1));
+        cache.put(b, bytes(4, 2));
+        assertNotNull(cache.get(a)); //b becomes the least recently used
+        cache.put(c, bytes(4, 3));
+
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(a));
+        assertNotNull(cache.get(c));
+        assertEquals(8, cache.getMemoryBytes());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void ignoresValuesLargerThanMemoryBound() {
+        ResultCache cache = new ResultCache(10, null, 0);
+        String key = cache.key(bytes(1, 1), bytes(1, 0));
+        cache.put(key, bytes(11, 1));
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.getMemoryBytes());
+    }
+
+    @Test
+    void versionChangeInvalidatesOldEntries(@TempDir File directory) {
+        ResultCache cache = new ResultCache(1024, directory, 1024);
+        cache.setModelVersion("v1");
+        String old = cache.key(bytes(1, 1), bytes(1, 0));
+        cache.put(old, bytes(4, 1));
+        assertEquals(1, directory.listFiles().length);
+
+        cache.setModelVersion("v2");
+        assertNull(cache.get(old));
+        assertEquals(0, cache.getMemoryBytes());
+        assertEquals(0, directory.listFiles().length);
+
+        //result of the replaced model finishing after the swap is not cached
+        cache.put(old, bytes(4, 1));
+        assertNull(cache.get(old));
+        assertEquals("v1", ResultCache.version(old));
+    }
+
+    @Test
+    void keepsDiskEntriesOfNewVersion(@TempDir File directory) {
+        ResultCache previous = new ResultCache(1024, directory, 1024);
+        previous.setModelVersion("v2");
+        String key = previous.key(bytes(1, 1), bytes(1, 0));
+        previous.put(key, bytes(4, 1));
+
+        ResultCache cache = new ResultCache(1024, directory, 1024);
+        cache.setModelVersion("v2");
+        assertArrayEquals(bytes(4, 1), cache.get(key));
+        assertEquals(1, cache.getDiskHits());
+    }
+
+    @Test
+    void evictsOldestFilesBeyondDiskBound(@TempDir File directory) {
+        ResultCache cache = new ResultCache(0, directory, 10);
+        for (int i = 0; i < 3; i++)
+            cache.put(cache.key(bytes(1, i), bytes(1, 0)), bytes(4, i));
+
+        assertTrue(cache.getDiskBytes() <= 10);
+        assertEquals(2, directory.listFiles().length);
+    }
+}